@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.cache;
+
+/**
+ * Computes the value to be cached for a given key when it is missing or expired in an
+ * {@link ExpiringCache}.
+ * @param <K> the type of the keys.
+ * @param <V> the type of the loaded values.
+ */
+public interface CacheLoader<K, V> {
+
+  /**
+   * Loads the value mapped to the specified key.
+   * @param key the key of the value to load.
+   * @return the loaded value. It can be null.
+   * @throws Exception if the value cannot be loaded.
+   */
+  public V load(K key) throws Exception;
+}
@@ -0,0 +1,407 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.stratelia.silverpeas.silvertrace.SilverTrace;
+
+/**
+ * A bounded cache in which each entry expires on its own after a time to live.
+ * <p/>
+ * When the cache is full, the least recently used entry is evicted. A missing or expired value is
+ * loaded only once whatever the number of threads asking for it at the same time: the first thread
+ * runs the loader and the others wait for its result. An entry near its expiration can be
+ * refreshed in background (refresh-ahead) so that the readers keep getting the current value
+ * instead of waiting for the reload.
+ * <p/>
+ * This class is thread-safe.
+ * @param <K> the type of the keys.
+ * @param <V> the type of the cached values.
+ */
+public class ExpiringCache<K, V> {
+
+  private static final ExecutorService refresher = new ThreadPoolExecutor(1, 2, 60,
+      TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(200), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "ExpiringCache-refresher");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private final String name;
+  private final Map<K, CacheEntry<V>> entries;
+  private volatile boolean enabled = true;
+  private volatile int maxSize;
+  private volatile long timeToLive;
+  private volatile long refreshAhead = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong loadFailures = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param name the name of the cache, used in traces.
+   * @param maxSize the maximum number of entries.
+   * @param timeToLive the time to live of an entry in milliseconds.
+   */
+  public ExpiringCache(String name, int maxSize, long timeToLive) {
+    this.name = name;
+    this.maxSize = maxSize;
+    this.timeToLive = timeToLive;
+    this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+        if (size() > ExpiringCache.this.maxSize) {
+          evictions.incrementAndGet();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Updates the settings of the cache. Entries already in the cache are kept unless the cache is
+   * disabled.
+   * @param enabled false to bypass the cache: each get then calls the loader.
+   * @param maxSize the maximum number of entries.
+   * @param timeToLive the time to live of an entry in milliseconds.
+   * @param refreshAhead the delay in milliseconds before the expiration of an entry from which it
+   * is reloaded in background. 0 disables the refresh-ahead.
+   */
+  public void configure(boolean enabled, int maxSize, long timeToLive, long refreshAhead) {
+    this.maxSize = Math.max(1, maxSize);
+    this.timeToLive = timeToLive;
+    this.refreshAhead = refreshAhead;
+    if (this.enabled && !enabled) {
+      invalidateAll();
+    }
+    this.enabled = enabled;
+  }
+
+  /**
+   * Gets the value mapped to the specified key, loading it with the given loader if it isn't in
+   * the cache or if it has expired.
+   * @param key the key.
+   * @param loader the loader to use if the value has to be computed.
+   * @return the value mapped to the key.
+   * @throws Exception the exception thrown by the loader.
+   */
+  public V get(K key, CacheLoader<? super K, V> loader) throws Exception {
+    if (!enabled || timeToLive <= 0) {
+      misses.incrementAndGet();
+      return loader.load(key);
+    }
+    long now = System.currentTimeMillis();
+    CacheEntry<V> entry;
+    boolean loading = false;
+    boolean refreshing = false;
+    synchronized (entries) {
+      entry = entries.get(key);
+      if (entry != null && entry.isExpired(now, timeToLive)) {
+        entries.remove(key);
+        entry = null;
+      }
+      if (entry == null) {
+        entry = new CacheEntry<V>(newLoadingTask(key, loader), now);
+        entries.put(key, entry);
+        loading = true;
+      } else if (entry.isDueForRefresh(now, timeToLive, refreshAhead)) {
+        entry.refreshing = true;
+        refreshing = true;
+      }
+    }
+    if (loading) {
+      misses.incrementAndGet();
+      entry.value.run();
+    } else {
+      hits.incrementAndGet();
+      if (refreshing) {
+        refresh(key, entry, loader);
+      }
+    }
+    try {
+      return entry.value.get();
+    } catch (ExecutionException e) {
+      if (loading) {
+        loadFailures.incrementAndGet();
+        remove(key, entry);
+      }
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Gets the value mapped to the specified key only if it is already loaded and still valid. The
+   * lookup is counted as a hit or a miss: the caller is expected to compute and put the value
+   * when it is missing.
+   * @param key the key.
+   * @return the cached value or null.
+   */
+  public V getIfPresent(K key) {
+    V value = peek(key);
+    if (value != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    return value;
+  }
+
+  /**
+   * Gets the value mapped to the specified key like {@link #getIfPresent(Object)}, without
+   * counting a hit or a miss, for the maintenance of the cache.
+   * @param key the key.
+   * @return the cached value or null.
+   */
+  public V peek(K key) {
+    if (!enabled) {
+      return null;
+    }
+    CacheEntry<V> entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+    }
+    if (entry != null && entry.isLoaded() &&
+        !entry.isExpired(System.currentTimeMillis(), timeToLive)) {
+      try {
+        return entry.value.get();
+      } catch (Exception e) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Puts directly a value in the cache.
+   * @param key the key.
+   * @param value the value.
+   */
+  public void put(K key, V value) {
+    if (enabled) {
+      CacheEntry<V> entry = new CacheEntry<V>(newLoadedTask(value), System.currentTimeMillis());
+      synchronized (entries) {
+        entries.put(key, entry);
+      }
+    }
+  }
+
+  /**
+   * Gets all the values currently loaded and valid in the cache.
+   * @return a snapshot of the cached values.
+   */
+  public Collection<V> values() {
+    List<CacheEntry<V>> snapshot;
+    synchronized (entries) {
+      snapshot = new ArrayList<CacheEntry<V>>(entries.values());
+    }
+    long now = System.currentTimeMillis();
+    List<V> values = new ArrayList<V>(snapshot.size());
+    for (CacheEntry<V> entry : snapshot) {
+      if (entry.isLoaded() && !entry.isExpired(now, timeToLive)) {
+        try {
+          values.add(entry.value.get());
+        } catch (Exception e) {
+          // the loading of this entry failed
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Gets a snapshot of the keys currently in the cache, loaded or being loaded, so that the
+   * callers can select the entries to invalidate.
+   * @return a copy of the keys of the cache.
+   */
+  public Set<K> keys() {
+    synchronized (entries) {
+      return new HashSet<K>(entries.keySet());
+    }
+  }
+
+  /**
+   * Removes the value mapped to the specified key.
+   * @param key the key.
+   */
+  public void invalidate(K key) {
+    synchronized (entries) {
+      entries.remove(key);
+    }
+  }
+
+  /**
+   * Removes all the values of the cache.
+   */
+  public void invalidateAll() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getLoadFailureCount() {
+    return loadFailures.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * @return the ratio of the requests served from the cache, between 0 and 1.
+   */
+  public double getHitRate() {
+    long hitCount = hits.get();
+    long total = hitCount + misses.get();
+    return total == 0 ? 0 : (double) hitCount / total;
+  }
+
+  private void remove(K key, CacheEntry<V> entry) {
+    synchronized (entries) {
+      if (entries.get(key) == entry) {
+        entries.remove(key);
+      }
+    }
+  }
+
+  private void refresh(final K key, final CacheEntry<V> entry,
+      final CacheLoader<? super K, V> loader) {
+    try {
+      refresher.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            V value = loader.load(key);
+            CacheEntry<V> refreshed =
+                new CacheEntry<V>(newLoadedTask(value), System.currentTimeMillis());
+            synchronized (entries) {
+              if (entries.get(key) == entry) {
+                entries.put(key, refreshed);
+              }
+            }
+          } catch (Exception e) {
+            loadFailures.incrementAndGet();
+            entry.refreshing = false;
+            SilverTrace.warn("util", "ExpiringCache.refresh()", "root.MSG_GEN_PARAM_VALUE",
+                "cache " + name + ", key " + key, e);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // too many refreshes pending: the entry will be reloaded once expired
+      entry.refreshing = false;
+    }
+  }
+
+  private FutureTask<V> newLoadingTask(final K key, final CacheLoader<? super K, V> loader) {
+    return new FutureTask<V>(new Callable<V>() {
+      @Override
+      public V call() throws Exception {
+        return loader.load(key);
+      }
+    });
+  }
+
+  private FutureTask<V> newLoadedTask(final V value) {
+    FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+      @Override
+      public V call() {
+        return value;
+      }
+    });
+    task.run();
+    return task;
+  }
+
+  private static class CacheEntry<V> {
+
+    private final FutureTask<V> value;
+    private final long creationTime;
+    private volatile boolean refreshing = false;
+
+    CacheEntry(FutureTask<V> value, long creationTime) {
+      this.value = value;
+      this.creationTime = creationTime;
+    }
+
+    boolean isLoaded() {
+      return value.isDone();
+    }
+
+    boolean isExpired(long now, long timeToLive) {
+      return isLoaded() && now - creationTime >= timeToLive;
+    }
+
+    boolean isDueForRefresh(long now, long timeToLive, long refreshAhead) {
+      return refreshAhead > 0 && !refreshing && isLoaded() &&
+          now - creationTime >= timeToLive - refreshAhead;
+    }
+  }
+}
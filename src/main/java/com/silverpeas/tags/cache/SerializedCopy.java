@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Deep copies of cached objects through their serialized form. The Silverpeas beans shared by the
+ * caches (values of the PDC, silver contents...) are mutable and are modified by the tags (titles
+ * and names translated, replaced by synonyms...): each caller gets then its own copy. They are
+ * all serializable since they are returned by remote EJBs.
+ */
+public class SerializedCopy {
+
+  private SerializedCopy() {
+  }
+
+  /**
+   * @param object the object to copy.
+   * @param <T> the type of the object.
+   * @return a deep copy of the object.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends Serializable> T of(T object) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(object);
+      out.close();
+      ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+      try {
+        return (T) in.readObject();
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Copy of " + object.getClass().getName() + " failed", e);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException("Copy of " + object.getClass().getName() + " failed", e);
+    }
+  }
+}
@@ -26,9 +26,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -90,6 +92,7 @@ public class KmeliaTagUtil extends ComponentTagUtil {
   private PublicationBm publicationBm = null;
   private NodeBm nodeBm = null;
   private CommentService commentService = null;
+  private PublicationLocationFilter locationFilter = null;
   
   public KmeliaTagUtil(String spaceId, String componentId, String userId) {
     super(componentId, userId);
@@ -170,7 +173,7 @@ public class KmeliaTagUtil extends ComponentTagUtil {
     return this.spaceId;
   }
 
-  private String getComponentId() {
+  public String getComponentId() {
     return this.componentId;
   }
 
@@ -234,6 +237,7 @@ public class KmeliaTagUtil extends ComponentTagUtil {
   private Collection<PublicationDetail> filterPublications(
       Collection<PublicationDetail> publicationDetails) {
     List<PublicationDetail> filteredPublications = new ArrayList<PublicationDetail>();
+    Set<String> publicationsOutOfBasket = null;
     for (PublicationDetail pubDetail : publicationDetails) {
       try {
         if (visibilityFilter != null) {
@@ -242,7 +246,10 @@ public class KmeliaTagUtil extends ComponentTagUtil {
           }
         }
         checkPublicationStatus(pubDetail);
-        checkPublicationLocation(pubDetail);
+        if (publicationsOutOfBasket == null) {
+          publicationsOutOfBasket = getLocationFilter().getPublicationsOutOfBasket();
+        }
+        getLocationFilter().checkLocation(pubDetail, publicationsOutOfBasket);
         filteredPublications.add(getTranslatedPublication(pubDetail, null));
       } catch (VisibilityException ae) {
         // this publication cannot be display according its status and site's mode
@@ -257,29 +264,60 @@ public class KmeliaTagUtil extends ComponentTagUtil {
   }
 
   private void checkPublicationLocation(PublicationDetail pubDetail) throws VisibilityException {
-    //publication must not be in basket (node 1)
-    List<NodePK> fathers = (List<NodePK>) getKmeliaBm().getPublicationFathers(pubDetail.getPK());
-    if (fathers == null || fathers.isEmpty() || (fathers.size() == 1
-        && "1".equals(((NodePK) fathers.get(0)).getId()))) {
-      throw new VisibilityException();
+    getLocationFilter().checkSingleLocation(pubDetail);
+  }
+
+  private PublicationLocationFilter getLocationFilter() {
+    if (locationFilter == null) {
+      locationFilter = new PublicationLocationFilter(getComponentId(),
+          new PublicationLocationFilter.LocationSource() {
+            @Override
+            public Set<String> getPublicationsOutOfBasket(String componentId)
+                throws RemoteException {
+              return getPublicationIdsOutOfBasket();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Collection<NodePK> getPublicationFathers(PublicationPK pubPK) {
+              return (Collection<NodePK>) getKmeliaBm().getPublicationFathers(pubPK);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Collection<Alias> getAlias(PublicationPK pubPK) {
+              return (Collection<Alias>) getKmeliaBm().getAlias(pubPK);
+            }
+          });
     }
+    return locationFilter;
+  }
 
-    //instanceId must correspond to componentId set in the kmeliaTag
-    //or is an alias of componentId set in the kmeliaTag
-    if (! pubDetail.getInstanceId().equals(getComponentId())) {
-      boolean isAlias = false;
-      Collection<Alias> listAlias = (Collection<Alias>) getKmeliaBm().getAlias(pubDetail.getPK());
-      for (Alias alias : listAlias) {
-        if(alias.getInstanceId().equals(getComponentId())) {
-          isAlias = true;
-          break;
-        }
+  /**
+   * Get the ids of the publications of the component linked to a topic other than the basket,
+   * with one call for the whole component.
+   *
+   * @return Set
+   */
+  private Set<String> getPublicationIdsOutOfBasket() throws RemoteException {
+    SilverTrace.info("kmelia", "KMeliaTagUtil.getPublicationIdsOutOfBasket()",
+        "root.MSG_GEN_ENTER_METHOD", "componentId = " + componentId);
+    List<String> nodeIds = new ArrayList<String>();
+    List<NodeDetail> nodes = getNodeBm().getSubTree(getNodePK(NodePK.ROOT_NODE_ID));
+    for (NodeDetail nodeDetail : nodes) {
+      if (!"1".equals(nodeDetail.getNodePK().getId())) {
+        nodeIds.add(nodeDetail.getNodePK().getId());
       }
-
-      if(! isAlias) {
-        throw new VisibilityException();
+    }
+    Set<String> pubIds = new HashSet<String>();
+    Collection<PublicationDetail> publications = getPublicationBm().getDetailsByFatherIds(nodeIds,
+        new PublicationPK("useless", componentId), "P.pubCreationDate desc");
+    for (PublicationDetail pubDetail : publications) {
+      if (componentId.equals(pubDetail.getInstanceId())) {
+        pubIds.add(pubDetail.getPK().getId());
       }
     }
+    return pubIds;
   }
 
   public Integer getPublicationCommentsCount(String pubId) throws RemoteException,
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.kmelia;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+import com.silverpeas.tags.util.VisibilityException;
+import com.stratelia.silverpeas.silvertrace.SilverTrace;
+import com.stratelia.webactiv.util.node.model.NodePK;
+import com.stratelia.webactiv.util.publication.model.Alias;
+import com.stratelia.webactiv.util.publication.model.PublicationDetail;
+import com.stratelia.webactiv.util.publication.model.PublicationPK;
+
+/**
+ * Checks that publications are located where a Kmelia tag may display them: out of the basket and
+ * in the component of the tag, or aliased in it.
+ * <p/>
+ * The publications of the component located out of the basket are fetched at once for the whole
+ * component when a collection of publications is filtered, so the filtering costs one remote call
+ * instead of one per publication. The locations are not kept beyond the filtering: a publication
+ * moved to the basket or deleted is hidden at once. A publication missing from that set and the
+ * publications of other components are checked one by one as before.
+ */
+public class PublicationLocationFilter {
+
+  /**
+   * Source of the locations of the publications, backed by the Kmelia EJBs.
+   */
+  public interface LocationSource {
+
+    /**
+     * @param componentId the id of a Kmelia component.
+     * @return the ids of the publications of the component having at least one father other than
+     * the basket.
+     * @throws Exception
+     */
+    public Set<String> getPublicationsOutOfBasket(String componentId) throws Exception;
+
+    public Collection<NodePK> getPublicationFathers(PublicationPK pubPK);
+
+    public Collection<Alias> getAlias(PublicationPK pubPK);
+  }
+
+  private static final String BASKET_ID = "1";
+
+  private final String componentId;
+  private final LocationSource source;
+
+  public PublicationLocationFilter(String componentId, LocationSource source) {
+    this.componentId = componentId;
+    this.source = source;
+  }
+
+  /**
+   * Checks the location of a publication with the locations of the whole component.
+   * @param pubDetail the publication.
+   * @param publicationsOutOfBasket the ids of the publications of the component located out of
+   * the basket, as returned by {@link #getPublicationsOutOfBasket()} for the current filtering.
+   * @throws VisibilityException if the publication must not be displayed.
+   */
+  public void checkLocation(PublicationDetail pubDetail, Set<String> publicationsOutOfBasket)
+      throws VisibilityException {
+    if (componentId.equals(pubDetail.getInstanceId()) &&
+        publicationsOutOfBasket.contains(pubDetail.getPK().getId())) {
+      return;
+    }
+    checkSingleLocation(pubDetail);
+  }
+
+  /**
+   * Checks the location of a publication alone.
+   * @param pubDetail the publication.
+   * @throws VisibilityException if the publication must not be displayed.
+   */
+  public void checkSingleLocation(PublicationDetail pubDetail) throws VisibilityException {
+    //publication must not be in basket (node 1)
+    Collection<NodePK> fathers = source.getPublicationFathers(pubDetail.getPK());
+    if (fathers == null || fathers.isEmpty() || (fathers.size() == 1
+        && BASKET_ID.equals(fathers.iterator().next().getId()))) {
+      throw new VisibilityException();
+    }
+
+    //instanceId must correspond to componentId set in the kmeliaTag
+    //or is an alias of componentId set in the kmeliaTag
+    if (! pubDetail.getInstanceId().equals(componentId)) {
+      boolean isAlias = false;
+      Collection<Alias> listAlias = source.getAlias(pubDetail.getPK());
+      for (Alias alias : listAlias) {
+        if(alias.getInstanceId().equals(componentId)) {
+          isAlias = true;
+          break;
+        }
+      }
+
+      if(! isAlias) {
+        throw new VisibilityException();
+      }
+    }
+  }
+
+  /**
+   * Fetches the current locations of the publications of the component, once for a filtering.
+   * @return the ids of the publications of the component located out of the basket, an empty set
+   * if they can't be fetched.
+   */
+  public Set<String> getPublicationsOutOfBasket() {
+    try {
+      return source.getPublicationsOutOfBasket(componentId);
+    } catch (Exception e) {
+      // the publications will be checked one by one
+      SilverTrace.warn("kmelia", "PublicationLocationFilter.getPublicationsOutOfBasket()",
+          "root.MSG_GEN_PARAM_VALUE", "componentId = " + componentId, e);
+      return Collections.emptySet();
+    }
+  }
+}
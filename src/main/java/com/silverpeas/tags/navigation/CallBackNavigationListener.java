@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.navigation;
+
+import com.stratelia.silverpeas.silverpeasinitialize.CallBack;
+import com.stratelia.silverpeas.silverpeasinitialize.CallBackManager;
+import com.stratelia.webactiv.util.publication.model.PublicationDetail;
+import com.stratelia.webactiv.util.publication.model.PublicationPK;
+
+/**
+ * Source des modifications utilisée par défaut : les notifications du {@link CallBackManager} de
+ * Silverpeas émises par Kmelia et le service des publications. Les modifications d'une
+ * publication (en-tête, suppression, classement) l'évincent ; un couper-coller ou la suppression
+ * d'une instance évince toute l'instance. Aucune notification n'est émise à la modification d'un
+ * thème : les thèmes restent soumis à la durée de vie des caches.
+ */
+public class CallBackNavigationListener implements NavigationEventListener, CallBack {
+
+  private static final int[] PUBLICATION_ACTIONS = {
+      CallBackManager.ACTION_HEADER_PUBLICATION_UPDATE, CallBackManager.ACTION_PUBLICATION_REMOVE,
+      CallBackManager.ACTION_PUBLICATION_CLASSIFY, CallBackManager.ACTION_PUBLICATION_DECLASSIFY };
+  private static final int[] COMPONENT_ACTIONS = {
+      CallBackManager.ACTION_CUTANDPASTE, CallBackManager.ACTION_BEFORE_REMOVE_COMPONENT };
+
+  private volatile NavigationCacheInvalidator invalidator = null;
+
+  @Override
+  public void register(NavigationCacheInvalidator invalidator) {
+    this.invalidator = invalidator;
+    subscribe();
+  }
+
+  @Override
+  public void unregister() {
+    CallBackManager callBacks = CallBackManager.get();
+    for (int action : PUBLICATION_ACTIONS) {
+      callBacks.unsubscribeAction(action, this);
+    }
+    for (int action : COMPONENT_ACTIONS) {
+      callBacks.unsubscribeAction(action, this);
+    }
+    this.invalidator = null;
+  }
+
+  @Override
+  public void subscribe() {
+    CallBackManager callBacks = CallBackManager.get();
+    for (int action : PUBLICATION_ACTIONS) {
+      callBacks.subscribeAction(action, this);
+    }
+    for (int action : COMPONENT_ACTIONS) {
+      callBacks.subscribeAction(action, this);
+    }
+  }
+
+  @Override
+  public void doInvoke(int action, int iParam, String componentId, Object extraParam) {
+    NavigationCacheInvalidator target = invalidator;
+    if (target == null || componentId == null) {
+      return;
+    }
+    String pubId = getPublicationId(extraParam);
+    if (isPublicationAction(action) && pubId != null) {
+      target.publicationChanged(componentId, pubId);
+    } else {
+      target.componentChanged(componentId);
+    }
+  }
+
+  private boolean isPublicationAction(int action) {
+    for (int publicationAction : PUBLICATION_ACTIONS) {
+      if (publicationAction == action) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Identifiant de la publication transmis selon les émetteurs sous forme de clef, de détail ou
+   * d'identifiant.
+   */
+  private String getPublicationId(Object extraParam) {
+    if (extraParam instanceof PublicationPK) {
+      return ((PublicationPK) extraParam).getId();
+    }
+    if (extraParam instanceof PublicationDetail) {
+      return ((PublicationDetail) extraParam).getPK().getId();
+    }
+    if (extraParam instanceof String) {
+      return (String) extraParam;
+    }
+    return null;
+  }
+}
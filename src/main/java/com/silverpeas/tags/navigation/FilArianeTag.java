@@ -233,7 +233,7 @@ public class FilArianeTag extends TagSupport {
   private String generateFullSemanticPath(NodeDetail node) throws RemoteException {
     try {
       // TODO use prefix id
-      return LinkGeneratorFactory.getInstance().newLinkGenerator().generateFullSemanticPath(
+      return LinkGeneratorFactory.getInstance().getLinkGenerator().generateFullSemanticPath(
           pageContext, themetracker, node, idsTopicsRoots, null, getPrefixIdByLevelAndRoot(node));
     } catch (Exception e) {
       throw new RemoteException("", e);
@@ -26,93 +26,244 @@ package com.silverpeas.tags.navigation;
 
 import java.rmi.RemoteException;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.silverpeas.tags.cache.CacheLoader;
+import com.silverpeas.tags.cache.ExpiringCache;
 import com.silverpeas.tags.kmelia.KmeliaTagUtil;
 import com.silverpeas.tags.navigation.config.Configurateur;
 import com.stratelia.webactiv.util.node.model.NodeDetail;
 
+/**
+ * Cache des thèmes et des arborescences d'une instance Kmelia. Chaque entrée expire
+ * individuellement (topicsCache.refreshDelay) et est rechargée en tâche de fond peu avant son
+ * expiration (topicsCache.refreshAhead). Le nombre d'entrées est borné (topicsCache.maxSize et
+ * topicsCache.maxTreeViews) : les moins récemment utilisées sont évincées. Les arborescences sont
+ * conservées indexées ({@link TopicTree}). Les modifications de thèmes sont propagées par
+ * {@link NavigationCacheInvalidator}.
+ */
 public class KmeliaCaching {
 
-  private static KmeliaCaching instance;
+  private static final ConcurrentHashMap<String, KmeliaCaching> instances =
+      new ConcurrentHashMap<String, KmeliaCaching>();
+
   private KmeliaTagUtil themetracker = null;
 
   // Cache treeview
-  private ConcurrentHashMap<String, Collection<NodeDetail>> treeViewCache =
-      new ConcurrentHashMap<String, Collection<NodeDetail>>();
+  private final ExpiringCache<String, TopicTree> treeViewCache =
+      new ExpiringCache<String, TopicTree>("treeViewCache", 100, 3600 * 1000L);
 
   // Cache topic
-  private ConcurrentHashMap<String, NodeDetail> topicCache =
-      new ConcurrentHashMap<String, NodeDetail>();
+  private final ExpiringCache<Integer, NodeDetail> topicCache =
+      new ExpiringCache<Integer, NodeDetail>("topicCache", 5000, 3600 * 1000L);
 
-  private long cacheAge = System.currentTimeMillis();
+  // Cache des menus pré-calculés, vidé à chaque modification de thème ou de publication
+  private final ExpiringCache<String, MenuFragment> menuCache =
+      new ExpiringCache<String, MenuFragment>("menuCache", 200, 3600 * 1000L);
+
+  private final CacheLoader<String, TopicTree> treeViewLoader =
+      new CacheLoader<String, TopicTree>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public TopicTree load(String topicId) throws Exception {
+          return new TopicTree((Collection<NodeDetail>) themetracker.getTreeView(topicId));
+        }
+      };
+
+  private final CacheLoader<Integer, NodeDetail> topicLoader =
+      new CacheLoader<Integer, NodeDetail>() {
+        @Override
+        public NodeDetail load(Integer topicId) throws Exception {
+          // un thème d'une arborescence en cache n'est pas redemandé
+          for (TopicTree tree : treeViewCache.values()) {
+            NodeDetail topic = tree.getTopic(topicId);
+            if (topic != null) {
+              return topic;
+            }
+          }
+          return themetracker.getTopic(String.valueOf(topicId));
+        }
+      };
 
   private KmeliaCaching(KmeliaTagUtil themetracker) {
     super();
     this.themetracker = themetracker;
   }
 
+  /**
+   * Retourne le cache de l'instance Kmelia sur laquelle porte le themetracker.
+   * @param themetracker
+   * @return
+   */
   public static KmeliaCaching getInstance(KmeliaTagUtil themetracker) {
+    String componentId = themetracker.getComponentId();
+    KmeliaCaching instance = instances.get(componentId);
     if (instance == null) {
+      NavigationCacheInvalidator.getInstance();
       instance = new KmeliaCaching(themetracker);
+      KmeliaCaching existing = instances.putIfAbsent(componentId, instance);
+      if (existing != null) {
+        instance = existing;
+      }
     }
     return instance;
   }
 
+  /**
+   * Retourne le cache de l'instance Kmelia s'il a déjà été créé, null sinon.
+   * @param componentId
+   * @return
+   */
+  static KmeliaCaching getExistingInstance(String componentId) {
+    return instances.get(componentId);
+  }
+
+  static Collection<KmeliaCaching> getExistingInstances() {
+    return instances.values();
+  }
+
   public NodeDetail getTopic(int topicId) throws RemoteException {
     manageCache();
+    return load(topicCache, Integer.valueOf(topicId), topicLoader);
+  }
 
-    NodeDetail topic = topicCache.get(String.valueOf(topicId));
-    if (topic == null) {
-      Iterator<Collection<NodeDetail>> iTree = treeViewCache.values().iterator();
-      while (iTree.hasNext()) {
-        Collection<NodeDetail> trees = (Collection<NodeDetail>) iTree.next();
-        Iterator<NodeDetail> iNodes = trees.iterator();
-        while (iNodes.hasNext()) {
-          NodeDetail node = (NodeDetail) iNodes.next();
-          if (node.getId() == topicId)
-            return node;
-        }
-      }
+  public Collection<NodeDetail> getTreeView(String topicId) throws RemoteException {
+    return getIndexedTreeView(topicId).getNodes();
+  }
 
-      synchronized (this) {
-        topic = themetracker.getTopic(String.valueOf(topicId));
-        topicCache.putIfAbsent(String.valueOf(topicId), topic);
-      }
-    }
-    return topic;
+  /**
+   * Retourne l'arborescence indexée dont la racine est topicId.
+   * @param topicId
+   * @return
+   * @throws RemoteException
+   */
+  public TopicTree getIndexedTreeView(String topicId) throws RemoteException {
+    manageCache();
+    return load(treeViewCache, topicId, treeViewLoader);
   }
 
-  @SuppressWarnings("unchecked")
-  public Collection<NodeDetail> getTreeView(String topicId) throws RemoteException {
+  /**
+   * Retourne le menu pré-calculé correspondant à key, construit par builder s'il n'est pas en
+   * cache. Un menu incomplet (erreur pendant sa construction) n'est pas conservé.
+   * @param key
+   * @param builder
+   * @return
+   * @throws RemoteException
+   */
+  public MenuFragment getMenu(String key, CacheLoader<String, MenuFragment> builder)
+      throws RemoteException {
     manageCache();
-    Collection<NodeDetail> treeView = treeViewCache.get(topicId);
-    if (treeView == null) {
-      synchronized (this) {
-        treeView = (Collection<NodeDetail>) themetracker.getTreeView(topicId);
-        treeViewCache.putIfAbsent(topicId, treeView);
-      }
+    MenuFragment menu = load(menuCache, key, builder);
+    if (!menu.isComplete()) {
+      menuCache.invalidate(key);
+    }
+    return menu;
+  }
+
+  private <K, V> V load(ExpiringCache<K, V> cache, K key, CacheLoader<K, V> loader)
+      throws RemoteException {
+    try {
+      return cache.get(key, loader);
+    } catch (RemoteException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RemoteException("", e);
     }
-    return treeView;
   }
 
   private void manageCache() {
     String cacheActivate = Configurateur.getConfigValue("topicsCache");
     String refreshDelay = Configurateur.getConfigValue("topicsCache.refreshDelay");
+    String refreshAhead = Configurateur.getConfigValue("topicsCache.refreshAhead");
+    String maxSize = Configurateur.getConfigValue("topicsCache.maxSize");
+    String maxTreeViews = Configurateur.getConfigValue("topicsCache.maxTreeViews");
+    String maxMenus = Configurateur.getConfigValue("topicsCache.maxMenus");
     if (refreshDelay == null)
       refreshDelay = "3600";
     if (cacheActivate == null)
       cacheActivate = "true";
-    if ((System.currentTimeMillis() - cacheAge >= Long.valueOf(refreshDelay) * 1000) ||
-        cacheActivate.equals("false")) {
-      clearCache();
+    long timeToLive = Long.valueOf(refreshDelay) * 1000;
+    // par défaut, rechargement des entrées pendant le dernier dixième de leur durée de vie
+    long refreshAheadDelay = timeToLive / 10;
+    if (refreshAhead != null) {
+      refreshAheadDelay = Long.valueOf(refreshAhead) * 1000;
+    }
+    int topicsMaxSize = 5000;
+    if (maxSize != null) {
+      topicsMaxSize = Integer.valueOf(maxSize);
+    }
+    int treeViewsMaxSize = 100;
+    if (maxTreeViews != null) {
+      treeViewsMaxSize = Integer.valueOf(maxTreeViews);
+    }
+    int menusMaxSize = 200;
+    if (maxMenus != null) {
+      menusMaxSize = Integer.valueOf(maxMenus);
+    }
+    boolean enabled = !cacheActivate.equals("false");
+    topicCache.configure(enabled, topicsMaxSize, timeToLive, refreshAheadDelay);
+    treeViewCache.configure(enabled, treeViewsMaxSize, timeToLive, refreshAheadDelay);
+    // pas de rechargement en tâche de fond : un menu se construit dans le contexte de la page
+    menuCache.configure(enabled, menusMaxSize, timeToLive, 0);
+  }
+
+  /**
+   * Evince un thème, ses sous-thèmes et les arborescences qui le contiennent.
+   * @param topicId
+   * @return les identifiants des thèmes évincés
+   */
+  public Set<Integer> invalidateTopic(int topicId) {
+    Set<Integer> topicIds = new HashSet<Integer>();
+    topicIds.add(topicId);
+    for (NodeDetail topic : topicCache.values()) {
+      if (isInSubTree(topic, topicId)) {
+        topicIds.add(topic.getId());
+      }
     }
+    for (String rootId : treeViewCache.keys()) {
+      TopicTree tree = treeViewCache.peek(rootId);
+      boolean impacted = (tree == null || rootId.equals(String.valueOf(topicId)));
+      if (tree != null) {
+        for (NodeDetail node : tree.getNodes()) {
+          if (node.getId() == topicId || isInSubTree(node, topicId)) {
+            topicIds.add(node.getId());
+            impacted = true;
+          }
+        }
+      }
+      if (impacted) {
+        treeViewCache.invalidate(rootId);
+      }
+    }
+    for (Integer id : topicIds) {
+      topicCache.invalidate(id);
+    }
+    menuCache.invalidateAll();
+    return topicIds;
+  }
+
+  private boolean isInSubTree(NodeDetail node, int topicId) {
+    String path = node.getPath();
+    if (path == null) {
+      return false;
+    }
+    String id = String.valueOf(topicId);
+    return path.contains("/" + id + "/") || path.endsWith("/" + id);
+  }
+
+  /**
+   * Evince les menus pré-calculés : les classes css du filtrage par axe dépendent des publications
+   * des thèmes.
+   */
+  public void invalidateMenus() {
+    menuCache.invalidateAll();
   }
 
   public void clearCache() {
-    treeViewCache.clear();
-    topicCache.clear();
-    cacheAge = System.currentTimeMillis();
+    treeViewCache.invalidateAll();
+    topicCache.invalidateAll();
+    menuCache.invalidateAll();
   }
 }
@@ -141,7 +141,7 @@ public class LienTag extends TagSupport {
   private String generateFullSemanticPath(NodeDetail node, PublicationDetail pub)
       throws RemoteException {
     try {
-      return LinkGeneratorFactory.getInstance().newLinkGenerator().generateFullSemanticPath(
+      return LinkGeneratorFactory.getInstance().getLinkGenerator().generateFullSemanticPath(
           pageContext, themetracker, node, idsRootsTopics, pub, prefixId);
     } catch (Exception e) {
       throw new RemoteException("", e);
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.navigation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.stratelia.webactiv.util.node.model.NodeDetail;
+
+/**
+ * Menu pré-calculé : le html issu des thèmes (structure, noms, descriptions, ids html et urls) et
+ * les classes css du filtrage par axe, évincé à la modification d'un thème ou d'une publication.
+ * Seule la sélection courante est calculée à chaque affichage. Les ids html redéfinis dans la
+ * configuration sont pris en compte à l'expiration du menu.
+ */
+public class MenuFragment {
+
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+  private final List<Object> parts = new ArrayList<Object>();
+  private final StringBuilder text = new StringBuilder();
+  private boolean complete = true;
+
+  /**
+   * Classe css d'un item, préfixée par "selected-" à l'affichage si l'item est sélectionné.
+   */
+  public static class ClassName {
+    private final NodeDetail theme;
+    private final String className;
+    private final boolean display;
+
+    private ClassName(NodeDetail theme, String className, boolean display) {
+      this.theme = theme;
+      this.className = className;
+      this.display = display;
+    }
+
+    public NodeDetail getTheme() {
+      return theme;
+    }
+
+    public String getClassName() {
+      return className;
+    }
+
+    public boolean isDisplayed() {
+      return display;
+    }
+  }
+
+  /**
+   * Ajoute du html suivi d'un saut de ligne.
+   * @param html
+   * @param display
+   */
+  void println(String html, boolean display) {
+    if (display) {
+      text.append(html).append(LINE_SEPARATOR);
+    }
+  }
+
+  void print(String html, boolean display) {
+    if (display) {
+      text.append(html);
+    }
+  }
+
+  /**
+   * Ajoute la classe css d'un item. Elle est aussi ajoutée quand l'item n'est pas affiché car la
+   * sélection d'un item a un effet de bord (mémorisation en session).
+   * @param theme
+   * @param className
+   * @param display
+   */
+  void printClassName(NodeDetail theme, String className, boolean display) {
+    flush();
+    parts.add(new ClassName(theme, className, display));
+  }
+
+  /**
+   * Indique que le menu n'a pas pu être construit entièrement : il ne doit pas être conservé.
+   */
+  void setIncomplete() {
+    complete = false;
+  }
+
+  public boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * Termine la construction du menu.
+   * @return le menu
+   */
+  MenuFragment build() {
+    flush();
+    return this;
+  }
+
+  /**
+   * @return les morceaux du menu : du html (String) ou des classes css ({@link ClassName})
+   */
+  public List<Object> getParts() {
+    return Collections.unmodifiableList(parts);
+  }
+
+  private void flush() {
+    if (text.length() > 0) {
+      parts.add(text.toString());
+      text.setLength(0);
+    }
+  }
+}
@@ -28,24 +28,23 @@ import java.io.IOException;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.StringTokenizer;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.JspWriter;
 import javax.servlet.jsp.tagext.TagSupport;
 
 import org.apache.commons.lang.StringEscapeUtils;
 
+import com.silverpeas.tags.cache.CacheLoader;
 import com.silverpeas.tags.kmelia.KmeliaTagUtil;
 import com.silverpeas.tags.navigation.config.Configurateur;
 import com.silverpeas.tags.navigation.links.LinkGeneratorFactory;
-import com.silverpeas.tags.navigation.utils.NodeDetailComparator;
 import com.silverpeas.tags.pdc.PdcTagUtil;
-import com.stratelia.silverpeas.pdc.model.Value;
 import com.stratelia.webactiv.util.node.model.NodeDetail;
 import com.stratelia.webactiv.util.publication.model.PublicationDetail;
 
@@ -213,9 +212,7 @@ public class MenuTag extends TagSupport {
   private String getPrefixIdByLevel(NodeDetail theme) throws Exception {
     if (prefixIdHierarchy != null) {
       // selection du bon prefix à appliquer
-      int rootLevel =
-          KmeliaCaching.getInstance(themetracker).getTopic(Integer.valueOf(idTopicRoot)).getLevel();
-      int level = theme.getLevel() - rootLevel;
+      int level = theme.getLevel() - getRootLevel();
       StringTokenizer tokenizer = null;
       tokenizer = new StringTokenizer(prefixIdHierarchy, ",");
       int l = 1;
@@ -232,60 +229,68 @@ public class MenuTag extends TagSupport {
   }
 
   /**
-   * Retourne le nom de la classe css à appliquer pour un niveau hierarchique donné.
-   * @param level
+   * Retourne le nom de la classe css à appliquer pour un niveau hierarchique donné, sans tenir
+   * compte de la sélection (voir {@link #getFinalClassName(NodeDetail, String)}).
+   * @param theme
+   * @param classNames les classes css de chaque niveau, séparées par des virgules
    * @return
    * @throws Exception
    */
-  private String getClassNameByLevel(NodeDetail theme) throws Exception {
-
-    boolean useAlternateClassNamesHierarchy = false;
-    // gestion du filtrage
-    if (idAxisFiltering != null && axisValueFilter != null && !idAxisFiltering.isEmpty() &&
-        !axisValueFilter.isEmpty()) {
-      @SuppressWarnings("unchecked")
-      Collection<PublicationDetail> pubs =
-          themetracker.getPublicationsByTopic(String.valueOf(theme.getId()));
-      Iterator<PublicationDetail> iPubs = pubs.iterator();
-      while (iPubs.hasNext()) {
-        PublicationDetail pub = (PublicationDetail) iPubs.next();
-        @SuppressWarnings("unchecked")
-        Collection<Value> values =
-            pdc.getValuesOnAxis(pub.getId() + "," + themetracker.getComponentInst().getId() + "," +
-                idAxisFiltering);
-        Iterator<Value> iValues = values.iterator();
-        while (iValues.hasNext()) {
-          Value v = (Value) iValues.next();
-          if (v.getName().equals(axisValueFilter)) {
-            useAlternateClassNamesHierarchy = true;
-            break;
-          }
-        }
-        if (useAlternateClassNamesHierarchy)
-          break;
-      }
-    }
-
+  private String getClassNameByLevel(NodeDetail theme, String classNames) throws Exception {
     // selection de la bonne classe css à appliquer
-    int rootLevel =
-        KmeliaCaching.getInstance(themetracker).getTopic(Integer.valueOf(idTopicRoot)).getLevel();
-    int level = theme.getLevel() - rootLevel;
-    StringTokenizer tokenizer = null;
-    if (useAlternateClassNamesHierarchy) {
-      tokenizer = new StringTokenizer(classNamesHierarchyFiltered, ",");
-    } else {
-      tokenizer = new StringTokenizer(classNamesHierarchy, ",");
-    }
+    int level = theme.getLevel() - getRootLevel();
+    StringTokenizer tokenizer = new StringTokenizer(classNames, ",");
     int l = 1;
     String className = null;
     while (tokenizer.hasMoreTokens()) {
       className = tokenizer.nextToken();
       if (level == l) {
-        return getFinalClassName(theme, className);
+        return className;
       }
       l++;
     }
-    return getFinalClassName(theme, className);
+    return className;
+  }
+
+  private boolean isAxisFiltering() {
+    return idAxisFiltering != null && axisValueFilter != null && !idAxisFiltering.isEmpty() &&
+        !axisValueFilter.isEmpty();
+  }
+
+  /**
+   * Retourne les ids des publications d'un thème.
+   * @param theme
+   * @return
+   */
+  private List<String> getPublicationIds(NodeDetail theme) {
+    Collection<PublicationDetail> pubs =
+        themetracker.getPublicationsByTopic(String.valueOf(theme.getId()));
+    List<String> pubIds = new ArrayList<String>(pubs.size());
+    for (PublicationDetail pub : pubs) {
+      pubIds.add(pub.getId());
+    }
+    return pubIds;
+  }
+
+  /**
+   * Retourne la classe css d'un item du menu pré-calculé, sans tenir compte de la sélection : la
+   * classe filtrée si une de ses publications est classée sur la valeur de l'axe de filtrage. Le
+   * menu est évincé à la modification d'une publication ou de son classement.
+   * @param theme
+   * @return
+   * @throws Exception
+   */
+  private String getClassName(NodeDetail theme) throws Exception {
+    if (isAxisFiltering()) {
+      List<String> pubIds = getPublicationIds(theme);
+      if (!pubIds.isEmpty() &&
+          !pdc.getPublicationsClassifiedOnAxisValue(pubIds,
+              themetracker.getComponentInst().getId(), idAxisFiltering, axisValueFilter)
+              .isEmpty()) {
+        return getClassNameByLevel(theme, classNamesHierarchyFiltered);
+      }
+    }
+    return getClassNameByLevel(theme, classNamesHierarchy);
   }
 
   /**
@@ -339,6 +344,12 @@ public class MenuTag extends TagSupport {
   private boolean isInSelectionPath(String selectedTopicId, NodeDetail currentNode)
       throws RemoteException {
     if (hierarchicSelection) {
+      Boolean inPath =
+          KmeliaCaching.getInstance(themetracker).getIndexedTreeView(idTopicRoot).isInPath(
+              currentNode.getId(), Integer.valueOf(selectedTopicId));
+      if (inPath != null) {
+        return inPath;
+      }
       String selectedTopicsIds =
           KmeliaCaching.getInstance(themetracker).getTopic(Integer.valueOf(selectedTopicId))
               .getFullPath();
@@ -375,14 +386,20 @@ public class MenuTag extends TagSupport {
   public int doStartTag() throws JspException {
     try {
       JspWriter out = pageContext.getOut();
-      NodeDetail root =
-          KmeliaCaching.getInstance(themetracker).getTopic(Integer.valueOf(idTopicRoot));
-
-      boolean display = true;
-      if (idTopicSubRoot != null) {
-        display = idTopicSubRoot.equalsIgnoreCase(idTopicRoot);
+      MenuFragment menu =
+          KmeliaCaching.getInstance(themetracker).getMenu(buildMenuKey(), menuBuilder);
+      for (Object part : menu.getParts()) {
+        if (part instanceof MenuFragment.ClassName) {
+          MenuFragment.ClassName className = (MenuFragment.ClassName) part;
+          String finalClassName =
+              getFinalClassName(className.getTheme(), className.getClassName());
+          if (className.isDisplayed()) {
+            out.print(finalClassName);
+          }
+        } else {
+          out.print((String) part);
+        }
       }
-      browse(out, root, 1, display);
     } catch (Exception e) {
       e.printStackTrace();
     }
@@ -390,21 +407,60 @@ public class MenuTag extends TagSupport {
     return SKIP_BODY;
   }
 
+  /**
+   * Construction du menu à partir des thèmes, sans la sélection courante : les ids html, les urls
+   * et les classes css du filtrage par axe sont calculés une fois pour toutes les requêtes.
+   */
+  private final CacheLoader<String, MenuFragment> menuBuilder =
+      new CacheLoader<String, MenuFragment>() {
+        @Override
+        public MenuFragment load(String key) throws Exception {
+          NodeDetail root =
+              KmeliaCaching.getInstance(themetracker).getTopic(Integer.valueOf(idTopicRoot));
+
+          boolean display = true;
+          if (idTopicSubRoot != null) {
+            display = idTopicSubRoot.equalsIgnoreCase(idTopicRoot);
+          }
+          MenuFragment menu = new MenuFragment();
+          browse(menu, root, 1, display);
+          return menu.build();
+        }
+      };
+
+  /**
+   * Clef du menu en cache : tous les paramètres du tag qui interviennent dans sa construction.
+   * @return
+   */
+  private String buildMenuKey() {
+    StringBuilder key = new StringBuilder();
+    key.append(((HttpServletRequest) pageContext.getRequest()).getContextPath()).append('|');
+    key.append(idTopicRoot).append('|').append(idTopicSubRoot).append('|');
+    key.append(maxDeepLevel).append('|').append(excludeTopicsNamed).append('|');
+    key.append(id).append('|').append(classNamesHierarchy).append('|');
+    key.append(classNamesHierarchyFiltered).append('|').append(prefixIdHierarchy).append('|');
+    key.append(classNameSeparator).append('|').append(idAxisFiltering).append('|');
+    key.append(axisValueFilter);
+    return key.toString();
+  }
+
   /**
    * Construction des onglets dans le menu.
-   * @param out
+   * @param menu
    * @param rootTopic
    * @param level
    */
-  private void browse(JspWriter out, NodeDetail rootTopic, int level, boolean display) {
+  private void browse(MenuFragment menu, NodeDetail rootTopic, int level, boolean display) {
     try {
       List<NodeDetail> themes = getSubTopics(themetracker, rootTopic.getId());
       Iterator<NodeDetail> iTheme = themes.iterator();
       if (!themes.isEmpty()) {
         if (level == 1) {
-          print(out, "<ul id='" + id + "'>", display);
+          menu.println("<ul id='" + id + "'>", display);
         } else {
-          print(out, "<ul id='" + buildId(PARENT_TOPIC_ID_PREFIX, rootTopic) + "'>", display);
+          menu.print("<ul id='", display);
+          menu.print(buildId(PARENT_TOPIC_ID_PREFIX, rootTopic), display);
+          menu.println("'>", display);
         }
       }
       StringBuffer html = new StringBuffer();
@@ -412,61 +468,48 @@ public class MenuTag extends TagSupport {
         NodeDetail theme = (NodeDetail) iTheme.next();
         if (excludeTopicsNamed == null ||
             theme.getName().equalsIgnoreCase(excludeTopicsNamed) == false) {
+          menu.print("<li id='", display);
+          menu.print(buildId(TOPIC_ID_PREFIX, theme), display);
+          menu.print("' class='", display);
+          // la classe d'un item masqué n'est pas affichée
+          menu.printClassName(theme, display ? getClassName(theme) : null, display);
+          menu.print("'><a href='", display);
+          if (display) {
+            menu.print(generateFullSemanticPath(theme, getPrefixIdByLevel(theme)), true);
+          }
           html.setLength(0);
-          html.append("<li id='");
-          html.append(buildId(TOPIC_ID_PREFIX, theme));
-          html.append("' class='");
-          html.append(getClassNameByLevel(theme));
-          html.append("'>");
-          html.append("<a href='");
-          html.append(generateFullSemanticPath(theme, getPrefixIdByLevel(theme)));
           html.append("' title='");
           html.append(StringEscapeUtils.escapeHtml(theme.getDescription()));
           html.append("'><span>");
           html.append(theme.getName());
           html.append("</span></a>");
-          print(out, html.toString(), display);
+          menu.println(html.toString(), display);
 
           if ((maxDeepLevel != null && Integer.valueOf(maxDeepLevel) > level) ||
               maxDeepLevel == null) {
             if (display) {
-              browse(out, theme, level + 1, true);
+              browse(menu, theme, level + 1, true);
             } else {
               boolean d =
                   idTopicSubRoot.equalsIgnoreCase(String.valueOf(rootTopic.getId())) ||
                       idTopicSubRoot.equalsIgnoreCase(String.valueOf(theme.getId()));
-              browse(out, theme, level + 1, d);
+              browse(menu, theme, level + 1, d);
             }
           }
-          print(out, "</li>", display);
+          menu.println("</li>", display);
           if (classNameSeparator != null && level == 1 && iTheme.hasNext())
-            print(out, "<li class='" + classNameSeparator + "'></li>", display);
+            menu.println("<li class='" + classNameSeparator + "'></li>", display);
         }
       }
       if (!themes.isEmpty()) {
-        print(out, "</ul>", display);
+        menu.println("</ul>", display);
       }
     } catch (Exception e) {
+      menu.setIncomplete();
       e.printStackTrace();
     }
   }
 
-  /**
-   * Print html.
-   * @param out
-   * @param html
-   * @param display
-   */
-  private void print(JspWriter out, String html, boolean display) {
-    if (display) {
-      try {
-        out.println(html);
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
-    }
-  }
-
   /**
    * Construction de l'url de l'item.
    * @param node
@@ -476,7 +519,7 @@ public class MenuTag extends TagSupport {
    */
   private String generateFullSemanticPath(NodeDetail node, String prefixId) throws RemoteException {
     try {
-      return LinkGeneratorFactory.getInstance().newLinkGenerator().generateFullSemanticPath(
+      return LinkGeneratorFactory.getInstance().getLinkGenerator().generateFullSemanticPath(
           pageContext, themetracker, node, idTopicRoot, null, prefixId);
     } catch (Exception e) {
       throw new RemoteException("", e);
@@ -492,31 +535,22 @@ public class MenuTag extends TagSupport {
    */
   private List<NodeDetail> getSubTopics(KmeliaTagUtil themetracker, int topicId)
       throws RemoteException {
+    return KmeliaCaching.getInstance(themetracker).getIndexedTreeView(idTopicRoot).getChildren(
+        topicId);
+  }
 
-    Collection<NodeDetail> arbo = KmeliaCaching.getInstance(themetracker).getTreeView(idTopicRoot);
-
-    // Calcul du niveau du topic racine
-    Iterator<NodeDetail> i = arbo.iterator();
-    NodeDetail n = null;
-    while (i.hasNext()) {
-      n = (NodeDetail) i.next();
-      if (n.getId() == Integer.valueOf(topicId)) {
-        break;
-      }
-    }
-    int level = n.getLevel() + 1;
-
-    // Constitution de la liste des sous topics
-    List<NodeDetail> result = new ArrayList<NodeDetail>();
-    i = arbo.iterator();
-    while (i.hasNext()) {
-      n = (NodeDetail) i.next();
-      if (n.getLevel() == level && n.getFatherPK().getId().equals(String.valueOf(topicId))) {
-        result.add(n);
-      }
+  /**
+   * Niveau du thème racine du menu.
+   * @return
+   * @throws RemoteException
+   */
+  private int getRootLevel() throws RemoteException {
+    KmeliaCaching cache = KmeliaCaching.getInstance(themetracker);
+    int rootId = Integer.valueOf(idTopicRoot);
+    int rootLevel = cache.getIndexedTreeView(idTopicRoot).getLevel(rootId);
+    if (rootLevel == -1) {
+      rootLevel = cache.getTopic(rootId).getLevel();
     }
-
-    Collections.sort(result, new NodeDetailComparator());
-    return result;
+    return rootLevel;
   }
 }
@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.navigation;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.silverpeas.tags.navigation.config.Configurateur;
+import com.silverpeas.tags.navigation.links.CachedLinkGeneratorImpl;
+import com.silverpeas.tags.navigation.links.LinkGenerator;
+import com.silverpeas.tags.navigation.links.LinkGeneratorFactory;
+import com.silverpeas.tags.pdc.PdcTreeCache;
+import com.silverpeas.tags.searchEngine.SearchResultCache;
+import com.stratelia.silverpeas.silvertrace.SilverTrace;
+
+/**
+ * Invalidation des caches de navigation ({@link KmeliaCaching}, {@link PublicationCache} et
+ * {@link CachedLinkGeneratorImpl}) à la modification d'un thème ou d'une publication : seules les
+ * entrées concernées sont évincées. L'invalidateur est alimenté par un
+ * {@link NavigationEventListener}, par défaut {@link CallBackNavigationListener}, et exposé en JMX
+ * sous le nom {@value #MBEAN_NAME}. Il est arrêté avec l'application par
+ * {@link com.silverpeas.tags.util.TagsContextListener}.
+ * <p/>
+ * Les durées de vie des caches (refreshDelay) ne servent alors plus que de filet de sécurité et
+ * peuvent être augmentées. Toute modification vide aussi le cache des résultats de recherche
+ * ({@link SearchResultCache}) ; celle d'une publication ou d'une instance évince les contenus et
+ * les publications de l'instance classés sur les valeurs des axes
+ * ({@link PdcTreeCache#invalidateContents(String)}).
+ */
+public class NavigationCacheInvalidator {
+
+  public static final String MBEAN_NAME = "com.silverpeas.tags:type=NavigationCache";
+
+  private static volatile NavigationCacheInvalidator instance;
+
+  private NavigationEventListener listener = null;
+
+  private NavigationCacheInvalidator() {
+    super();
+  }
+
+  public static NavigationCacheInvalidator getInstance() {
+    if (instance == null) {
+      synchronized (NavigationCacheInvalidator.class) {
+        if (instance == null) {
+          instance = new NavigationCacheInvalidator();
+          instance.start();
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Arrête l'invalidateur à l'arrêt de l'application : la source des modifications est détachée
+   * et l'administration JMX retirée pour que l'instance et son classloader ne soient plus
+   * référencés après un redéploiement.
+   */
+  public static void shutdown() {
+    synchronized (NavigationCacheInvalidator.class) {
+      if (instance != null) {
+        instance.setListener(null);
+        instance.unregisterMBean();
+        instance = null;
+      }
+    }
+  }
+
+  /**
+   * Remplace la source des modifications.
+   * @param listener la nouvelle source, null pour n'en utiliser aucune
+   */
+  public synchronized void setListener(NavigationEventListener listener) {
+    if (this.listener != null) {
+      this.listener.unregister();
+    }
+    this.listener = listener;
+    if (listener != null) {
+      listener.register(this);
+    }
+  }
+
+  /**
+   * Un thème a été créé, modifié, déplacé ou supprimé : évince le thème, ses sous-thèmes, les
+   * arborescences qui le contiennent, leurs urls et les publications dont une url est évincée.
+   * @param componentId
+   * @param topicId
+   */
+  public void topicChanged(String componentId, int topicId) {
+    SearchResultCache.getInstance().clear();
+    Set<Integer> topicIds = Collections.singleton(topicId);
+    KmeliaCaching topics = KmeliaCaching.getExistingInstance(componentId);
+    if (topics != null) {
+      topicIds = topics.invalidateTopic(topicId);
+    }
+    CachedLinkGeneratorImpl links = getCachedLinkGenerator();
+    if (links != null) {
+      Set<String> pubIds = links.invalidateTopics(componentId, topicIds);
+      PublicationCache publications = PublicationCache.getExistingInstance(componentId);
+      if (publications != null) {
+        for (String pubId : pubIds) {
+          publications.invalidate(pubId);
+        }
+      }
+    }
+  }
+
+  /**
+   * Une publication a été modifiée ou supprimée : évince la publication, ses urls et les menus
+   * pré-calculés de l'instance.
+   * @param componentId
+   * @param pubId
+   */
+  public void publicationChanged(String componentId, String pubId) {
+    SearchResultCache.getInstance().clear();
+    PdcTreeCache.getInstance().invalidateContents(componentId);
+    PublicationCache publications = PublicationCache.getExistingInstance(componentId);
+    if (publications != null) {
+      publications.invalidate(pubId);
+    }
+    CachedLinkGeneratorImpl links = getCachedLinkGenerator();
+    if (links != null) {
+      links.invalidatePublication(componentId, pubId);
+    }
+    KmeliaCaching topics = KmeliaCaching.getExistingInstance(componentId);
+    if (topics != null) {
+      topics.invalidateMenus();
+    }
+  }
+
+  /**
+   * Evince toutes les entrées d'une instance Kmelia.
+   * @param componentId
+   */
+  public void componentChanged(String componentId) {
+    SearchResultCache.getInstance().clear();
+    PdcTreeCache.getInstance().invalidateContents(componentId);
+    KmeliaCaching topics = KmeliaCaching.getExistingInstance(componentId);
+    if (topics != null) {
+      topics.clearCache();
+    }
+    PublicationCache publications = PublicationCache.getExistingInstance(componentId);
+    if (publications != null) {
+      publications.clearCache();
+    }
+    CachedLinkGeneratorImpl links = getCachedLinkGenerator();
+    if (links != null) {
+      links.invalidateComponent(componentId);
+    }
+  }
+
+  /**
+   * Vide tous les caches de navigation.
+   */
+  public void clearAll() {
+    SearchResultCache.getInstance().clear();
+    PdcTreeCache.getInstance().invalidateContents();
+    for (KmeliaCaching topics : KmeliaCaching.getExistingInstances()) {
+      topics.clearCache();
+    }
+    for (PublicationCache publications : PublicationCache.getExistingInstances()) {
+      publications.clearCache();
+    }
+    CachedLinkGeneratorImpl links = getCachedLinkGenerator();
+    if (links != null) {
+      links.clearCache();
+    }
+  }
+
+  private CachedLinkGeneratorImpl getCachedLinkGenerator() {
+    try {
+      LinkGenerator generator = LinkGeneratorFactory.getInstance().getLinkGenerator();
+      if (generator instanceof CachedLinkGeneratorImpl) {
+        return (CachedLinkGeneratorImpl) generator;
+      }
+    } catch (Exception e) {
+      SilverTrace.warn("util", "NavigationCacheInvalidator.getCachedLinkGenerator()",
+          "root.MSG_GEN_PARAM_VALUE", "no link generator", e);
+    }
+    return null;
+  }
+
+  private void start() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      // l'instance d'un déploiement précédent est remplacée
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(new NavigationCacheAdmin(this), name);
+    } catch (Exception e) {
+      SilverTrace.warn("util", "NavigationCacheInvalidator.start()", "root.MSG_GEN_PARAM_VALUE",
+          "JMX registration failed", e);
+    }
+    String listenerClassName = Configurateur.getConfigValue("cacheInvalidation.listener");
+    if (listenerClassName == null) {
+      listenerClassName = CallBackNavigationListener.class.getName();
+    }
+    if (!"none".equals(listenerClassName)) {
+      try {
+        setListener((NavigationEventListener) Class.forName(listenerClassName).newInstance());
+      } catch (Exception e) {
+        SilverTrace.error("util", "NavigationCacheInvalidator.start()",
+            "root.MSG_GEN_PARAM_VALUE", "listener " + listenerClassName, e);
+      }
+    }
+  }
+
+  private void unregisterMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    } catch (Exception e) {
+      SilverTrace.warn("util", "NavigationCacheInvalidator.unregisterMBean()",
+          "root.MSG_GEN_PARAM_VALUE", "JMX unregistration failed", e);
+    }
+  }
+}
@@ -39,7 +39,6 @@ import com.silverpeas.tags.kmelia.KmeliaTagUtil;
 import com.silverpeas.tags.navigation.config.Configurateur;
 import com.silverpeas.tags.navigation.links.LinkGeneratorFactory;
 import com.silverpeas.tags.pdc.PdcTagUtil;
-import com.stratelia.silverpeas.pdc.model.Value;
 import com.stratelia.webactiv.util.node.model.NodeDetail;
 import com.stratelia.webactiv.util.publication.model.PublicationDetail;
 
@@ -201,18 +200,11 @@ public class PageListeTag extends TagSupport {
 
     if (idAxisFiltering != null && axisValueFilter != null && !idAxisFiltering.isEmpty() &&
         !axisValueFilter.isEmpty()) {
-      @SuppressWarnings("unchecked")
-      Collection<Value> values =
-          pdc.getValuesOnAxis(pub.getId() + "," + themetracker.getComponentInst().getId() + "," +
-              idAxisFiltering);
-      Iterator<Value> iValues = values.iterator();
-      while (iValues.hasNext()) {
-        Value v = (Value) iValues.next();
-        if (v.getName().equals(axisValueFilter) && classNamesFiltered != null) {
-          className.append(" ");
-          className.append(classNamesFiltered);
-          break;
-        }
+      if (classNamesFiltered != null &&
+          pdc.getPublicationsClassifiedOnAxisValue(themetracker.getComponentInst().getId(),
+              idAxisFiltering, axisValueFilter).contains(pub.getId())) {
+        className.append(" ");
+        className.append(classNamesFiltered);
       }
     }
     return className.toString().trim();
@@ -244,7 +236,7 @@ public class PageListeTag extends TagSupport {
   private String generateFullSemanticPath(NodeDetail node, PublicationDetail pub, int number)
       throws RemoteException {
     try {
-      return LinkGeneratorFactory.getInstance().newLinkGenerator().generateFullSemanticPath(
+      return LinkGeneratorFactory.getInstance().getLinkGenerator().generateFullSemanticPath(
           pageContext, themetracker, node, idTopicRoot, pub, null) +
           "-" + number;
     } catch (Exception e) {
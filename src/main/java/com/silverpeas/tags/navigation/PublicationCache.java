@@ -24,21 +24,38 @@
 
 package com.silverpeas.tags.navigation;
 
+import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.silverpeas.tags.cache.CacheLoader;
+import com.silverpeas.tags.cache.ExpiringCache;
 import com.silverpeas.tags.kmelia.KmeliaTagUtil;
 import com.silverpeas.tags.navigation.config.Configurateur;
 import com.stratelia.webactiv.util.publication.model.PublicationDetail;
 
+/**
+ * Cache des publications d'une instance Kmelia. Les chargements sont faits par publication : deux
+ * demandes simultanées de publications différentes sont traitées en parallèle, alors que deux
+ * demandes simultanées de la même publication ne donnent lieu qu'à un seul appel distant. Les
+ * modifications de publications sont propagées par {@link NavigationCacheInvalidator}.
+ */
 public class PublicationCache {
 
-  private static PublicationCache instance;
+  private static final ConcurrentHashMap<String, PublicationCache> instances =
+      new ConcurrentHashMap<String, PublicationCache>();
   private KmeliaTagUtil themetracker = null;
 
-  // Cache treeview
-  private ConcurrentHashMap<String, PublicationDetail> publicationCache =
-      new ConcurrentHashMap<String, PublicationDetail>();
-  private long publicationCacheAge = System.currentTimeMillis();
+  // Cache publication
+  private final ExpiringCache<String, PublicationDetail> publicationCache =
+      new ExpiringCache<String, PublicationDetail>("publicationCache", 5000, 3600 * 1000L);
+
+  private final CacheLoader<String, PublicationDetail> publicationLoader =
+      new CacheLoader<String, PublicationDetail>() {
+        @Override
+        public PublicationDetail load(String pubId) throws Exception {
+          return themetracker.getPublicationDetail(pubId);
+        }
+      };
 
   private PublicationCache(KmeliaTagUtil themetracker) {
     super();
@@ -46,37 +63,53 @@ public class PublicationCache {
   }
 
   public static PublicationCache getInstance(KmeliaTagUtil themetracker) {
+    String componentId = themetracker.getComponentId();
+    PublicationCache instance = instances.get(componentId);
     if (instance == null) {
+      NavigationCacheInvalidator.getInstance();
       instance = new PublicationCache(themetracker);
+      PublicationCache existing = instances.putIfAbsent(componentId, instance);
+      if (existing != null) {
+        instance = existing;
+      }
     }
     return instance;
   }
 
-  public PublicationDetail getPublication(String pubId) throws Exception {
-    manageCache();
+  static PublicationCache getExistingInstance(String componentId) {
+    return instances.get(componentId);
+  }
 
-    PublicationDetail pub = publicationCache.get(pubId);
-    if (pub == null) {
-      synchronized (this) {
-        pub = themetracker.getPublicationDetail(pubId);
-        publicationCache.putIfAbsent(pubId, pub);
-      }
-    }
+  static Collection<PublicationCache> getExistingInstances() {
+    return instances.values();
+  }
 
-    return pub;
+  public PublicationDetail getPublication(String pubId) throws Exception {
+    manageCache();
+    return publicationCache.get(pubId, publicationLoader);
   }
 
   private void manageCache() {
     String cacheActivate = Configurateur.getConfigValue("publicationsCache");
     String refreshDelay = Configurateur.getConfigValue("publicationsCache.refreshDelay");
+    String maxSize = Configurateur.getConfigValue("publicationsCache.maxSize");
     if (refreshDelay == null)
       refreshDelay = "3600";
     if (cacheActivate == null)
       cacheActivate = "true";
-    if ((System.currentTimeMillis() - publicationCacheAge >= Long.valueOf(refreshDelay) * 1000) ||
-        cacheActivate.equals("false")) {
-      publicationCache.clear();
-      publicationCacheAge = System.currentTimeMillis();
+    int publicationsMaxSize = 5000;
+    if (maxSize != null) {
+      publicationsMaxSize = Integer.valueOf(maxSize);
     }
+    publicationCache.configure(!cacheActivate.equals("false"), publicationsMaxSize,
+        Long.valueOf(refreshDelay) * 1000, 0);
+  }
+
+  public void invalidate(String pubId) {
+    publicationCache.invalidate(pubId);
+  }
+
+  public void clearCache() {
+    publicationCache.invalidateAll();
   }
 }
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.navigation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.silverpeas.tags.navigation.utils.NodeDetailComparator;
+import com.stratelia.webactiv.util.node.model.NodeDetail;
+
+/**
+ * Arborescence de thèmes indexée, non modifiable : accès à un thème par son identifiant et à ses
+ * sous-thèmes (triés avec {@link NodeDetailComparator}) en temps constant.
+ */
+public class TopicTree {
+
+  private final Collection<NodeDetail> nodes;
+  private final Map<Integer, NodeDetail> topics;
+  private final Map<Integer, List<NodeDetail>> children;
+
+  public TopicTree(Collection<NodeDetail> treeView) {
+    super();
+    Map<Integer, NodeDetail> topicsById = new HashMap<Integer, NodeDetail>(treeView.size() * 2);
+    Map<Integer, List<NodeDetail>> childrenById = new HashMap<Integer, List<NodeDetail>>();
+    for (NodeDetail node : treeView) {
+      topicsById.put(node.getId(), node);
+    }
+    for (NodeDetail node : treeView) {
+      if (node.getFatherPK() == null) {
+        continue;
+      }
+      Integer fatherId = Integer.valueOf(node.getFatherPK().getId());
+      NodeDetail father = topicsById.get(fatherId);
+      if (father != null && node.getLevel() != father.getLevel() + 1) {
+        continue;
+      }
+      List<NodeDetail> brothers = childrenById.get(fatherId);
+      if (brothers == null) {
+        brothers = new ArrayList<NodeDetail>();
+        childrenById.put(fatherId, brothers);
+      }
+      brothers.add(node);
+    }
+    NodeDetailComparator comparator = new NodeDetailComparator();
+    for (Map.Entry<Integer, List<NodeDetail>> entry : childrenById.entrySet()) {
+      Collections.sort(entry.getValue(), comparator);
+      entry.setValue(Collections.unmodifiableList(entry.getValue()));
+    }
+    this.nodes = Collections.unmodifiableCollection(new ArrayList<NodeDetail>(treeView));
+    this.topics = topicsById;
+    this.children = childrenById;
+  }
+
+  /**
+   * @return tous les thèmes de l'arborescence, dans l'ordre d'origine
+   */
+  public Collection<NodeDetail> getNodes() {
+    return nodes;
+  }
+
+  /**
+   * @param topicId
+   * @return le thème ou null s'il n'appartient pas à l'arborescence
+   */
+  public NodeDetail getTopic(int topicId) {
+    return topics.get(topicId);
+  }
+
+  public boolean contains(int topicId) {
+    return topics.containsKey(topicId);
+  }
+
+  /**
+   * @param topicId
+   * @return les sous-thèmes directs, triés par ordre
+   */
+  public List<NodeDetail> getChildren(int topicId) {
+    List<NodeDetail> result = children.get(topicId);
+    if (result == null) {
+      return Collections.emptyList();
+    }
+    return result;
+  }
+
+  /**
+   * @param topicId
+   * @return le niveau du thème, -1 s'il n'appartient pas à l'arborescence
+   */
+  public int getLevel(int topicId) {
+    NodeDetail topic = topics.get(topicId);
+    if (topic == null) {
+      return -1;
+    }
+    return topic.getLevel();
+  }
+
+  /**
+   * Teste si un thème est l'un des ancêtres d'un autre (ou le thème lui-même), en remontant les
+   * pères dans l'arborescence.
+   * @param ancestorId
+   * @param topicId
+   * @return null si l'un des deux thèmes n'appartient pas à l'arborescence
+   */
+  public Boolean isInPath(int ancestorId, int topicId) {
+    NodeDetail topic = topics.get(topicId);
+    if (topic == null || !topics.containsKey(ancestorId)) {
+      return null;
+    }
+    while (topic != null) {
+      if (topic.getId() == ancestorId) {
+        return Boolean.TRUE;
+      }
+      if (topic.getFatherPK() == null) {
+        break;
+      }
+      topic = topics.get(Integer.valueOf(topic.getFatherPK().getId()));
+    }
+    return Boolean.FALSE;
+  }
+}
@@ -21,29 +21,45 @@
  * You should have received a copy of the GNU Affero General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package com.silverpeas.tags.navigation.links;
 
 import java.rmi.RemoteException;
-import java.text.Normalizer;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.jsp.PageContext;
 
-import org.apache.commons.lang.StringEscapeUtils;
-
+import com.silverpeas.tags.cache.CacheLoader;
+import com.silverpeas.tags.cache.ExpiringCache;
 import com.silverpeas.tags.kmelia.KmeliaTagUtil;
 import com.silverpeas.tags.navigation.KmeliaCaching;
 import com.silverpeas.tags.navigation.config.Configurateur;
+import com.silverpeas.tags.navigation.utils.AsciiUtils;
 import com.stratelia.webactiv.util.node.model.NodeDetail;
 import com.stratelia.webactiv.util.publication.model.PublicationDetail;
 
+/**
+ * Générateur d'urls sémantiques avec mise en cache. Une instance est partagée par toutes les
+ * pages (voir {@link LinkGeneratorFactory#getLinkGenerator()}) : les caches sont donc
+ * thread-safe et bornés (urlCache.maxSize). Les noms transformés des thèmes sont calculés une fois
+ * pour toute une arborescence, la construction d'une url se limite alors à la concaténation de ces
+ * segments. Les urls touchées par la modification d'un thème ou d'une publication sont évincées
+ * par {@link com.silverpeas.tags.navigation.NavigationCacheInvalidator}.
+ */
 public class CachedLinkGeneratorImpl implements LinkGenerator {
 
-  private HashMap<Integer, String> cache = new HashMap<Integer, String>();
-  private long cacheAge = System.currentTimeMillis();
+  // Cache des urls
+  private final ExpiringCache<UrlKey, String> cache =
+      new ExpiringCache<UrlKey, String>("urlCache", 10000, 3600 * 1000L);
+
+  // Cache des noms transformés des thèmes (id du thème -> segment d'url) par arborescence
+  private final ExpiringCache<UrlKey, Map<Integer, String>> slugTables =
+      new ExpiringCache<UrlKey, Map<Integer, String>>("slugCache", 100, 3600 * 1000L);
 
   /**
    * Construction de l'url de l'item.
@@ -59,35 +75,32 @@ public class CachedLinkGeneratorImpl implements LinkGenerator {
   public String generateFullSemanticPath(PageContext pageContext, KmeliaTagUtil themetracker,
       NodeDetail node, String idsTopicsRoots, PublicationDetail pub, String prefixId)
       throws RemoteException {
-    String cacheActivate = Configurateur.getConfigValue("urlCache");
-    String refreshDelay = Configurateur.getConfigValue("urlCache.refreshDelay");
-    if (refreshDelay == null)
-      refreshDelay = "3600";
-    if (cacheActivate == null)
-      cacheActivate = "true";
-    if ((System.currentTimeMillis() - cacheAge >= Long.valueOf(refreshDelay) * 1000) ||
-        cacheActivate.equals("false")) {
-      cache.clear();
-      cacheAge = System.currentTimeMillis();
-    }
-    String cachedValue = cache.get(node.getId());
+    manageCache();
+    String contextPath = ((HttpServletRequest) pageContext.getRequest()).getContextPath();
+    UrlKey key = new UrlKey(contextPath, themetracker.getComponentId(), idsTopicsRoots,
+        node.getPath(), node.getId(), (pub != null) ? pub.getId() : null, prefixId);
+    String cachedValue = cache.getIfPresent(key);
     if (cachedValue == null) {
-      StringBuffer path = new StringBuffer();
-      path.append(((HttpServletRequest) pageContext.getRequest()).getContextPath());
+      Map<Integer, String> slugs = getSlugTable(themetracker, idsTopicsRoots);
+      StringBuilder path = new StringBuilder();
+      path.append(contextPath);
       path.append("/");
       StringTokenizer nodes = new StringTokenizer(node.getPath(), "/");
       boolean beginPath = false;
       while (nodes.hasMoreTokens()) {
         String nodeId = nodes.nextToken();
         if (beginPath) {
-          NodeDetail n = KmeliaCaching.getInstance(themetracker).getTopic(Integer.valueOf(nodeId));
-          path.append(tranformName(n.getName()));
+          path.append(getSlug(themetracker, slugs, Integer.valueOf(nodeId)));
           path.append("/");
         } else {
           beginPath = isRootTopic(nodeId, idsTopicsRoots);
         }
       }
-      path.append(tranformName(node.getName()));
+      String nodeSlug = slugs.get(node.getId());
+      if (nodeSlug == null) {
+        nodeSlug = tranformName(node.getName());
+      }
+      path.append(nodeSlug);
       path.append("/");
       if (pub != null) {
         path.append(tranformName(pub.getName()));
@@ -99,39 +112,156 @@ public class CachedLinkGeneratorImpl implements LinkGenerator {
       path.append(node.getId());
 
       // Mise en cache
-      cache.put(node.getId(), path.toString());
+      cachedValue = path.toString();
+      cache.put(key, cachedValue);
+    }
+    return cachedValue;
+  }
 
-      return path.toString();
-    } else {
-      return cachedValue;
+  /**
+   * Retourne le nom transformé d'un thème, depuis la table de l'arborescence ou à défaut depuis le
+   * cache des thèmes.
+   */
+  private String getSlug(KmeliaTagUtil themetracker, Map<Integer, String> slugs, Integer nodeId)
+      throws RemoteException {
+    String slug = slugs.get(nodeId);
+    if (slug == null) {
+      NodeDetail n = KmeliaCaching.getInstance(themetracker).getTopic(nodeId);
+      slug = tranformName(n.getName());
     }
+    return slug;
   }
 
   /**
-   * Changement des caractères "spéciaux" du nom d'un élément.
-   * @param name
-   * @return
+   * Table des noms transformés de tous les thèmes des arborescences dont les racines sont
+   * idsTopicsRoots.
    */
-  private String tranformName(String name) {
-    name = name.toLowerCase();
-    name = stripAccents(name);
-    name = name.replace("'", "_");
-    name = name.replace(" ", "_");
-    name = name.replace("?", "");
-    name = name.replaceAll("\\<.*?>", "");
-    name = StringEscapeUtils.escapeHtml(name);
-    return name;
+  private Map<Integer, String> getSlugTable(final KmeliaTagUtil themetracker,
+      final String idsTopicsRoots) throws RemoteException {
+    try {
+      UrlKey key = new UrlKey(null, themetracker.getComponentId(), idsTopicsRoots, null, 0, null,
+          null);
+      return slugTables.get(key, new CacheLoader<UrlKey, Map<Integer, String>>() {
+        @Override
+        public Map<Integer, String> load(UrlKey tableKey) throws Exception {
+          Map<Integer, String> slugs = new HashMap<Integer, String>();
+          StringTokenizer rootNodes = new StringTokenizer(idsTopicsRoots, ",");
+          while (rootNodes.hasMoreTokens()) {
+            for (NodeDetail n : KmeliaCaching.getInstance(themetracker).getTreeView(
+                rootNodes.nextToken())) {
+              slugs.put(n.getId(), tranformName(n.getName()));
+            }
+          }
+          return Collections.unmodifiableMap(slugs);
+        }
+      });
+    } catch (RemoteException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RemoteException("", e);
+    }
+  }
+
+  /**
+   * Evince les urls des thèmes donnés (et de leurs publications) ou de leurs sous-thèmes.
+   * @param componentId
+   * @param topicIds
+   * @return les identifiants des publications dont une url a été évincée
+   */
+  public Set<String> invalidateTopics(String componentId, Set<Integer> topicIds) {
+    Set<String> pubIds = new HashSet<String>();
+    for (UrlKey key : cache.keys()) {
+      if (!componentId.equals(key.componentId)) {
+        continue;
+      }
+      boolean impacted = topicIds.contains(key.nodeId);
+      StringTokenizer path = new StringTokenizer(key.nodePath, "/");
+      while (!impacted && path.hasMoreTokens()) {
+        impacted = containsTopic(topicIds, path.nextToken());
+      }
+      if (impacted) {
+        cache.invalidate(key);
+        if (key.pubId != null) {
+          pubIds.add(key.pubId);
+        }
+      }
+    }
+    invalidateSlugTables(componentId);
+    return pubIds;
+  }
+
+  /**
+   * Evince les urls d'une publication.
+   * @param componentId
+   * @param pubId
+   */
+  public void invalidatePublication(String componentId, String pubId) {
+    for (UrlKey key : cache.keys()) {
+      if (componentId.equals(key.componentId) && pubId.equals(key.pubId)) {
+        cache.invalidate(key);
+      }
+    }
+  }
+
+  /**
+   * Evince toutes les urls d'une instance Kmelia.
+   * @param componentId
+   */
+  public void invalidateComponent(String componentId) {
+    for (UrlKey key : cache.keys()) {
+      if (componentId.equals(key.componentId)) {
+        cache.invalidate(key);
+      }
+    }
+    invalidateSlugTables(componentId);
+  }
+
+  public void clearCache() {
+    cache.invalidateAll();
+    slugTables.invalidateAll();
+  }
+
+  private boolean containsTopic(Set<Integer> topicIds, String topicId) {
+    try {
+      return topicIds.contains(Integer.valueOf(topicId));
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private void invalidateSlugTables(String componentId) {
+    for (UrlKey key : slugTables.keys()) {
+      if (componentId.equals(key.componentId)) {
+        slugTables.invalidate(key);
+      }
+    }
+  }
+
+  private void manageCache() {
+    String cacheActivate = Configurateur.getConfigValue("urlCache");
+    String refreshDelay = Configurateur.getConfigValue("urlCache.refreshDelay");
+    String maxSize = Configurateur.getConfigValue("urlCache.maxSize");
+    if (refreshDelay == null)
+      refreshDelay = "3600";
+    if (cacheActivate == null)
+      cacheActivate = "true";
+    int urlsMaxSize = 10000;
+    if (maxSize != null) {
+      urlsMaxSize = Integer.valueOf(maxSize);
+    }
+    boolean enabled = !cacheActivate.equals("false");
+    long timeToLive = Long.valueOf(refreshDelay) * 1000;
+    cache.configure(enabled, urlsMaxSize, timeToLive, 0);
+    slugTables.configure(enabled, 100, timeToLive, 0);
   }
 
   /**
-   * Suppresion des accents d'une chaine de caractères.
-   * @param s
+   * Changement des caractères "spéciaux" du nom d'un élément.
+   * @param name
    * @return
    */
-  public String stripAccents(String s) {
-    s = Normalizer.normalize(s, Normalizer.Form.NFD);
-    s = s.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
-    return s;
+  private String tranformName(String name) {
+    return AsciiUtils.toSlug(name);
   }
 
   /**
@@ -150,4 +280,66 @@ public class CachedLinkGeneratorImpl implements LinkGenerator {
     }
     return false;
   }
+
+  /**
+   * Clef de cache d'une url : tous les paramètres qui interviennent dans sa construction. Le
+   * chemin du thème en fait partie pour pouvoir évincer les urls d'un sous-arbre. Les champs sont
+   * conservés tels quels pour que l'éviction n'ait pas à les extraire d'une chaîne.
+   */
+  private static final class UrlKey {
+
+    final String contextPath;
+    final String componentId;
+    final String idsTopicsRoots;
+    final String nodePath;
+    final int nodeId;
+    final String pubId;
+    final String prefixId;
+
+    UrlKey(String contextPath, String componentId, String idsTopicsRoots, String nodePath,
+        int nodeId, String pubId, String prefixId) {
+      this.contextPath = contextPath;
+      this.componentId = componentId;
+      this.idsTopicsRoots = idsTopicsRoots;
+      this.nodePath = nodePath;
+      this.nodeId = nodeId;
+      this.pubId = pubId;
+      this.prefixId = prefixId;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof UrlKey)) {
+        return false;
+      }
+      UrlKey other = (UrlKey) obj;
+      return nodeId == other.nodeId && same(contextPath, other.contextPath) &&
+          same(componentId, other.componentId) && same(idsTopicsRoots, other.idsTopicsRoots) &&
+          same(nodePath, other.nodePath) && same(pubId, other.pubId) &&
+          same(prefixId, other.prefixId);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = nodeId;
+      hash = 31 * hash + hash(contextPath);
+      hash = 31 * hash + hash(componentId);
+      hash = 31 * hash + hash(idsTopicsRoots);
+      hash = 31 * hash + hash(nodePath);
+      hash = 31 * hash + hash(pubId);
+      hash = 31 * hash + hash(prefixId);
+      return hash;
+    }
+
+    private static boolean same(String a, String b) {
+      return (a == null) ? b == null : a.equals(b);
+    }
+
+    private static int hash(String s) {
+      return (s == null) ? 0 : s.hashCode();
+    }
+  }
 }
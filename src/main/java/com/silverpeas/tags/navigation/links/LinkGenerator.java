@@ -32,6 +32,11 @@ import com.silverpeas.tags.kmelia.KmeliaTagUtil;
 import com.stratelia.webactiv.util.node.model.NodeDetail;
 import com.stratelia.webactiv.util.publication.model.PublicationDetail;
 
+/**
+ * Générateur d'urls sémantiques. Une même instance est utilisée simultanément par plusieurs
+ * requêtes (voir {@link LinkGeneratorFactory#getLinkGenerator()}), les implémentations doivent
+ * donc être thread-safe.
+ */
 public interface LinkGenerator {
   public String generateFullSemanticPath(PageContext pageContext, KmeliaTagUtil themetracker,
       NodeDetail node, String idTopicRoot, PublicationDetail pub, String prefixId)
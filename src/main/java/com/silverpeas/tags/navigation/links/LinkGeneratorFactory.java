@@ -27,8 +27,10 @@ package com.silverpeas.tags.navigation.links;
 import com.silverpeas.tags.navigation.config.Configurateur;
 
 public class LinkGeneratorFactory {
-  private static LinkGeneratorFactory instance;
+  private static volatile LinkGeneratorFactory instance;
   private static Class<?> linkGeneratorImplClass;
+  // Générateur partagé par toutes les pages, les implémentations doivent être thread-safe
+  private volatile LinkGenerator sharedLinkGenerator;
 
   private LinkGeneratorFactory() {
     super();
@@ -42,11 +44,34 @@ public class LinkGeneratorFactory {
 
   public static LinkGeneratorFactory getInstance() {
     if (instance == null) {
-      instance = new LinkGeneratorFactory();
+      synchronized (LinkGeneratorFactory.class) {
+        if (instance == null) {
+          instance = new LinkGeneratorFactory();
+        }
+      }
     }
     return instance;
   }
 
+  /**
+   * Retourne le générateur d'urls partagé. Son cache est ainsi commun à toutes les pages.
+   * @return
+   * @throws Exception
+   */
+  public LinkGenerator getLinkGenerator() throws Exception {
+    LinkGenerator generator = sharedLinkGenerator;
+    if (generator == null) {
+      synchronized (this) {
+        generator = sharedLinkGenerator;
+        if (generator == null) {
+          generator = newLinkGenerator();
+          sharedLinkGenerator = generator;
+        }
+      }
+    }
+    return generator;
+  }
+
   public LinkGenerator newLinkGenerator() throws Exception {
     return (LinkGenerator) linkGeneratorImplClass.newInstance();
   }
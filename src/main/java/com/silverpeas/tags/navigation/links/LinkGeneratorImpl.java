@@ -25,15 +25,13 @@
 package com.silverpeas.tags.navigation.links;
 
 import java.rmi.RemoteException;
-import java.text.Normalizer;
 import java.util.StringTokenizer;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.jsp.PageContext;
 
-import org.apache.commons.lang.StringEscapeUtils;
-
 import com.silverpeas.tags.kmelia.KmeliaTagUtil;
+import com.silverpeas.tags.navigation.utils.AsciiUtils;
 import com.stratelia.webactiv.util.node.model.NodeDetail;
 import com.stratelia.webactiv.util.publication.model.PublicationDetail;
 
@@ -86,25 +84,7 @@ public class LinkGeneratorImpl implements LinkGenerator {
    * @return
    */
   private String tranformName(String name) {
-    name = name.toLowerCase();
-    name = stripAccents(name);
-    name = name.replace("'", "_");
-    name = name.replace(" ", "_");
-    name = name.replace("?", "");
-    name = name.replaceAll("\\<.*?>", "");
-    name = StringEscapeUtils.escapeHtml(name);
-    return name;
-  }
-
-  /**
-   * Suppresion des accents d'une chaine de caractères.
-   * @param s
-   * @return
-   */
-  private String stripAccents(String s) {
-    s = Normalizer.normalize(s, Normalizer.Form.NFD);
-    s = s.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
-    return s;
+    return AsciiUtils.toSlug(name);
   }
 
   /**
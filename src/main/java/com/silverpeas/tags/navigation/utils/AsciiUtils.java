@@ -24,6 +24,10 @@
 
 package com.silverpeas.tags.navigation.utils;
 
+import java.text.Normalizer;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
 public abstract class AsciiUtils {
   private static final String PLAIN_ASCII =
       "AaEeIiOoUu" // grave
@@ -46,6 +50,26 @@ public abstract class AsciiUtils {
       + "\u00C7\u00E7"
       + "\u0150\u0151\u0170\u0171";
 
+  // last char covered by the slug table (end of Latin Extended-B)
+  private static final char SLUG_TABLE_MAX = '\u024F';
+
+  // lower case, accent-free and url-safe replacement of each char up to SLUG_TABLE_MAX
+  private static final char[][] SLUG_TABLE = new char[SLUG_TABLE_MAX + 1][];
+
+  static {
+    for (char c = 0; c <= SLUG_TABLE_MAX; c++) {
+      SLUG_TABLE[c] = slugChar(String.valueOf(c)).toCharArray();
+    }
+  }
+
+  // per thread work buffer of toSlug()
+  private static final ThreadLocal<char[]> SLUG_BUFFER = new ThreadLocal<char[]>() {
+    @Override
+    protected char[] initialValue() {
+      return new char[128];
+    }
+  };
+
   // private constructor, can't be instanciated!
   private AsciiUtils() {
   }
@@ -67,4 +91,95 @@ public abstract class AsciiUtils {
     }
     return sb.toString();
   }
+
+  /**
+   * Transforms a topic or publication name into a semantic url segment: lower case, without
+   * accents, spaces and quotes replaced by '_', without '?' nor html tags, html escaped. The
+   * result is the one of {@link #toSlugSlow(String)}, computed in a single pass over a reused
+   * buffer with the chars of Latin-1 and Latin Extended-A/B looked up in a precomputed table.
+   * Names holding any other char go through {@link #toSlugSlow(String)}.
+   * @param name
+   * @return
+   */
+  public static String toSlug(String name) {
+    int n = name.length();
+    char[] buffer = SLUG_BUFFER.get();
+    if (buffer.length < n * 2) {
+      buffer = new char[n * 2];
+      SLUG_BUFFER.set(buffer);
+    }
+    int length = 0;
+    for (int i = 0; i < n; i++) {
+      char c = name.charAt(i);
+      if (c > SLUG_TABLE_MAX) {
+        return toSlugSlow(name);
+      }
+      char[] replacement = SLUG_TABLE[c];
+      if (length + replacement.length > buffer.length) {
+        char[] larger = new char[(length + replacement.length) * 2];
+        System.arraycopy(buffer, 0, larger, 0, length);
+        buffer = larger;
+        SLUG_BUFFER.set(buffer);
+      }
+      for (char r : replacement) {
+        buffer[length++] = r;
+      }
+    }
+
+    // removal of the html tags (same matching as replaceAll("\\<.*?>", ""))
+    int end = 0;
+    boolean escape = false;
+    for (int i = 0; i < length; i++) {
+      char c = buffer[i];
+      if (c == '<') {
+        int close = indexOfTagEnd(buffer, i + 1, length);
+        if (close != -1) {
+          i = close;
+          continue;
+        }
+      }
+      if (c > 0x7F || c == '<' || c == '>' || c == '&' || c == '"') {
+        escape = true;
+      }
+      buffer[end++] = c;
+    }
+    String slug = new String(buffer, 0, end);
+    return escape ? StringEscapeUtils.escapeHtml(slug) : slug;
+  }
+
+  /**
+   * Reference implementation of {@link #toSlug(String)}.
+   * @param name
+   * @return
+   */
+  public static String toSlugSlow(String name) {
+    name = slugChar(name);
+    name = name.replaceAll("\\<.*?>", "");
+    return StringEscapeUtils.escapeHtml(name);
+  }
+
+  // lower case, accents removal and replacement of the chars not allowed in an url segment
+  private static String slugChar(String s) {
+    s = s.toLowerCase();
+    s = Normalizer.normalize(s, Normalizer.Form.NFD);
+    s = s.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
+    s = s.replace("'", "_");
+    s = s.replace(" ", "_");
+    s = s.replace("?", "");
+    return s;
+  }
+
+  // position of the '>' closing a tag, -1 if a line terminator or the end comes first
+  private static int indexOfTagEnd(char[] buffer, int from, int length) {
+    for (int i = from; i < length; i++) {
+      char c = buffer[i];
+      if (c == '>') {
+        return i;
+      }
+      if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+        return -1;
+      }
+    }
+    return -1;
+  }
 }
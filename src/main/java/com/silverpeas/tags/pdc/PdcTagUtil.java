@@ -24,13 +24,17 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 import com.silverpeas.admin.ejb.AdminBusiness;
 import com.silverpeas.pdc.ejb.PdcBm;
 import com.silverpeas.pdc.ejb.PdcBmRuntimeException;
+import com.silverpeas.tags.cache.CacheLoader;
+import com.silverpeas.tags.cache.SerializedCopy;
 import com.silverpeas.tags.organization.MenuItem;
 import com.silverpeas.tags.publication.PublicationTagUtil;
 import com.silverpeas.tags.util.SiteTagUtil;
@@ -179,7 +183,35 @@ public class PdcTagUtil implements java.io.Serializable {
   }
 
   public List getTreeView() throws Exception {
-    return valuesTree2MenuItemTree((ArrayList) getPdcBm().getDaughters(getAxisId(), "0"));
+    return getMenuItems("treeView", null, new CacheLoader<PdcTreeCache.ViewKey, List>() {
+      @Override
+      public List load(PdcTreeCache.ViewKey key) throws Exception {
+        return valuesTree2MenuItemTree((ArrayList) getPdcBm().getDaughters(getAxisId(), "0"));
+      }
+    });
+  }
+
+  /**
+   * Gets a view of the axis from the cache shared by the PdcTagUtil instances. The MenuItems are
+   * copied since their names can be replaced by synonyms.
+   *
+   * @param kind the kind of view
+   * @param valueId the value from which the view is computed, null if none
+   * @param loader the loader computing the view if it isn't in the cache
+   * @return a list of MenuItem
+   * @throws Exception
+   */
+  private List getMenuItems(String kind, String valueId,
+      CacheLoader<PdcTreeCache.ViewKey, List> loader) throws Exception {
+    List cachedItems = PdcTreeCache.getInstance().get(kind, getAxisId(), valueId, null,
+        getSiteLanguage(), loader);
+    ArrayList menuItems = new ArrayList(cachedItems.size());
+    for (int i = 0; i < cachedItems.size(); i++) {
+      MenuItem item = (MenuItem) cachedItems.get(i);
+      menuItems.add(new MenuItem(item.getName(), item.getDescription(), item.getLevel(),
+          item.getType(), item.getId(), item.getFatherId()));
+    }
+    return menuItems;
   }
 
   /**
@@ -203,11 +235,16 @@ public class PdcTagUtil implements java.io.Serializable {
    * @param vocaId - Id du vocabulaire utilisé
    * @throws Exception
    */
-  private void addSynonyms(List treeView, String vocaId) throws Exception {
-    long lvocaId = new Long(vocaId).longValue();
-    long ltreeId = new Long(getPdcBm().getAxisHeader(getAxisId()).getRootId()).longValue();
-
-    List synonyms = getThesaurusBm().getSynonymsByTree(ltreeId, lvocaId);
+  private void addSynonyms(List treeView, final String vocaId) throws Exception {
+    List synonyms = PdcTreeCache.getInstance().get("synonyms", getAxisId(), null, vocaId, null,
+        new CacheLoader<PdcTreeCache.ViewKey, List>() {
+          @Override
+          public List load(PdcTreeCache.ViewKey key) throws Exception {
+            long lvocaId = new Long(vocaId).longValue();
+            long ltreeId = new Long(getPdcBm().getAxisHeader(getAxisId()).getRootId()).longValue();
+            return getThesaurusBm().getSynonymsByTree(ltreeId, lvocaId);
+          }
+        });
 
     MenuItem value = null;
     Synonym synonym = null;
@@ -220,16 +257,19 @@ public class PdcTagUtil implements java.io.Serializable {
     }
   }
 
-  private List getSynonymsOfValue(String valueId, String vocaId) throws Exception {
+  private List getSynonymsOfValue(final String valueId, final String vocaId) throws Exception {
     SilverTrace.info("Pdc", "PdcTagUtil.getSynonymsOfValue()", "root.MSG_GEN_PARAM_VALUE",
         "valueId = " + valueId + ", vocaId = " + vocaId);
-    long lvocaId = new Long(vocaId).longValue();
-    long lvalueId = new Long(valueId).longValue();
-    long ltreeId = new Long(getPdcBm().getAxisHeader(getAxisId()).getRootId()).longValue();
-
-    List synonyms = getThesaurusBm().getSynonyms(ltreeId, lvalueId, lvocaId);
-
-    return synonyms;
+    return PdcTreeCache.getInstance().get("valueSynonyms", getAxisId(), valueId, vocaId, null,
+        new CacheLoader<PdcTreeCache.ViewKey, List>() {
+          @Override
+          public List load(PdcTreeCache.ViewKey key) throws Exception {
+            long lvocaId = new Long(vocaId).longValue();
+            long lvalueId = new Long(valueId).longValue();
+            long ltreeId = new Long(getPdcBm().getAxisHeader(getAxisId()).getRootId()).longValue();
+            return getThesaurusBm().getSynonyms(ltreeId, lvalueId, lvocaId);
+          }
+        });
   }
 
   /**
@@ -249,8 +289,14 @@ public class PdcTagUtil implements java.io.Serializable {
   }
 
   public List getSubTreeView() throws Exception {
-    return valuesTree2MenuItemTree((ArrayList) getPdcBm().getSubAxisValues(getAxisId(),
-        getValueId()));
+    return getMenuItems("subTreeView", getValueId(),
+        new CacheLoader<PdcTreeCache.ViewKey, List>() {
+          @Override
+          public List load(PdcTreeCache.ViewKey key) throws Exception {
+            return valuesTree2MenuItemTree((ArrayList) getPdcBm().getSubAxisValues(getAxisId(),
+                getValueId()));
+          }
+        });
   }
 
   public List getAltSubTreeView(String vocaId) throws Exception {
@@ -267,7 +313,17 @@ public class PdcTagUtil implements java.io.Serializable {
    * de la valeur et leurs soeurs.
    * @throws Exception
    */
-  public List getSubTreeViewContextual(String targetValueId) throws Exception {
+  public List getSubTreeViewContextual(final String targetValueId) throws Exception {
+    return getMenuItems("subTreeViewContextual", getValueId() + ">" + targetValueId,
+        new CacheLoader<PdcTreeCache.ViewKey, List>() {
+          @Override
+          public List load(PdcTreeCache.ViewKey key) throws Exception {
+            return loadSubTreeViewContextual(targetValueId);
+          }
+        });
+  }
+
+  private List loadSubTreeViewContextual(String targetValueId) throws Exception {
     SilverTrace.info("Pdc", "PdcTagUtil.getSubTreeViewContextual()", "root.MSG_GEN_PARAM_VALUE",
         "targetValueId = " + targetValueId);
     List values = (ArrayList) getPdcBm().getSubAxisValues(getAxisId(), getValueId());
@@ -321,14 +377,37 @@ public class PdcTagUtil implements java.io.Serializable {
   }
 
   /**
-   * Get Path (use Language or Synonym)
+   * Get Path (use Language or Synonym). The paths are kept in the cache shared by the PdcTagUtil
+   * instances: the values are copied since the callers may change them.
    *
    * @param targetValueId
    * @param vocaId
    * @return List
    * @throws Exception
    */
-  private List getPath(String targetValueId, String vocaId) throws Exception {
+  private List getPath(final String targetValueId, final String vocaId) throws Exception {
+    return copyValues(PdcTreeCache.getInstance().get("path", getAxisId(),
+        getValueId() + ">" + targetValueId, vocaId, getSiteLanguage(),
+        new CacheLoader<PdcTreeCache.ViewKey, List>() {
+          @Override
+          public List load(PdcTreeCache.ViewKey key) throws Exception {
+            return loadPath(targetValueId, vocaId);
+          }
+        }));
+  }
+
+  /**
+   * Deep copy of a list of Value, with their translations, through their serialized form: a path
+   * holds a few values only.
+   *
+   * @param values a list of Value
+   * @return a new list of new Value
+   */
+  private List copyValues(List values) {
+    return SerializedCopy.of(new ArrayList(values));
+  }
+
+  private List loadPath(String targetValueId, String vocaId) throws Exception {
     List values = new ArrayList();
     Value targetValue = getValue(getAxisId(), targetValueId);
 
@@ -677,9 +756,95 @@ public class PdcTagUtil implements java.io.Serializable {
     return result;
   }
 
-  private List getSilverContents(String axisId, String valueId, List componentIds) throws Exception {
-    SearchContext context = getSearchContext(axisId, valueId);
-    return findSilverContents(context, componentIds, false);
+  /**
+   * Returns, among the given publications of a component, those classified on an axis with a value
+   * of the given name. This is the bulk form of getValuesOnAxis(): the publications classified on
+   * the value are fetched once with a search on the PDC and kept for a while, whatever the number
+   * of publications to check.
+   *
+   * @param pubIds the ids of the publications to check
+   * @param componentId the id of the component of the publications
+   * @param axisId the id of the axis
+   * @param valueName the name of the value
+   * @return the ids of the publications classified on the value
+   * @throws Exception
+   */
+  public Set<String> getPublicationsClassifiedOnAxisValue(Collection<String> pubIds,
+      String componentId, String axisId, String valueName) throws Exception {
+    Set<String> classifiedPubIds = getPublicationsClassifiedOnAxisValue(componentId, axisId,
+        valueName);
+    Set<String> result = new HashSet<String>();
+    for (String pubId : pubIds) {
+      if (classifiedPubIds.contains(pubId)) {
+        result.add(pubId);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the ids of all the publications of a component classified on an axis with a value of
+   * the given name (the value is the last one of the position, as in getValuesOnAxis()). The ids
+   * are kept in the PdcTreeCache until a publication of the component changes.
+   *
+   * @param componentId the id of the component
+   * @param axisId the id of the axis
+   * @param valueName the name of the value
+   * @return an unmodifiable set of publication ids
+   * @throws Exception
+   */
+  public Set<String> getPublicationsClassifiedOnAxisValue(final String componentId,
+      final String axisId, final String valueName) throws Exception {
+    return PdcTreeCache.getInstance().getClassifiedPublications(componentId, axisId, valueName,
+        new CacheLoader<PdcTreeCache.ClassificationKey, Set<String>>() {
+          @Override
+          public Set<String> load(PdcTreeCache.ClassificationKey key) throws Exception {
+            List<String> componentIds = new ArrayList<String>();
+            componentIds.add(componentId);
+            Set<String> pubIds = new HashSet<String>();
+            Iterator values = getPdcBm().getSubAxisValues(axisId, "0").iterator();
+            while (values.hasNext()) {
+              Value value = (Value) values.next();
+              if (valueName.equals(value.getName())) {
+                SearchContext context = getSearchContext(axisId, value.getFullPath());
+                List silverContents =
+                    getPdcBm().findGlobalSilverContents(context, componentIds, false, false);
+                for (int i = 0; i < silverContents.size(); i++) {
+                  pubIds.add(((GlobalSilverContent) silverContents.get(i)).getId());
+                }
+              }
+            }
+            SilverTrace.info("Pdc", "PdcTagUtil.getPublicationsClassifiedOnAxisValue()",
+                "root.MSG_GEN_PARAM_VALUE", "key = " + key + ", pubIds.size() = " + pubIds.size());
+            return Collections.unmodifiableSet(pubIds);
+          }
+        });
+  }
+
+  /**
+   * Get the silverContents classified on a value of the full tree view. The PDC search of each
+   * value is memoized in the PdcTreeCache for the user and the components: the contents found are
+   * copied and filtered on each call as the other searches.
+   *
+   * @param axisId the id of the axis
+   * @param valuePath the full path of the value
+   * @param componentIds the ids of the components in which the contents are searched
+   * @return a list of GlobalSilverContent
+   * @throws Exception
+   */
+  private List getSilverContentsOnValue(final String axisId, final String valuePath,
+      final List componentIds) throws Exception {
+    final boolean visibilitySensitive = isVisibilitySensitive();
+    List silverContents = PdcTreeCache.getInstance().getContents(axisId, valuePath, componentIds,
+        getUserId(), visibilitySensitive, new CacheLoader<PdcTreeCache.ContentsKey, List>() {
+          @Override
+          public List load(PdcTreeCache.ContentsKey key) throws Exception {
+            SearchContext context = getSearchContext(axisId, valuePath);
+            return getPdcBm().findGlobalSilverContents(context, componentIds, false,
+                visibilitySensitive);
+          }
+        });
+    return filterSilverContents(SerializedCopy.of(new ArrayList(silverContents)));
   }
 
   private List getSilverContents(String valueId, List componentIds) throws Exception {
@@ -696,6 +861,13 @@ public class PdcTagUtil implements java.io.Serializable {
   private List findSilverContents(SearchContext context, List componentIds, boolean recursiveSearch)
       throws Exception {
     SilverTrace.info("Pdc", "PdcTagUtil.findSilverContents()", "root.MSG_GEN_ENTER_METHOD");
+    List silverContentsToFiltered =
+        getPdcBm().findGlobalSilverContents(context, componentIds, recursiveSearch,
+        isVisibilitySensitive());
+    return filterSilverContents(silverContentsToFiltered);
+  }
+
+  private boolean isVisibilitySensitive() {
     boolean visibilitySensitive = true;
     if (SiteTagUtil.isDevMode() || SiteTagUtil.isRecetteMode()) {
       // Le site n'est pas en mode production. Une recherche est faite sur le PDC sans tenir compte
@@ -706,15 +878,14 @@ public class PdcTagUtil implements java.io.Serializable {
       // colonne isVisible.
       // C'est le comportement standard de Silverpeas.
     }
+    return visibilitySensitive;
+  }
 
-    List silverContents = new ArrayList();
-    List silverContentsToFiltered =
-        getPdcBm().findGlobalSilverContents(context, componentIds, recursiveSearch,
-        visibilitySensitive);
-
+  private List filterSilverContents(List silverContentsToFiltered) throws Exception {
     SilverTrace.info("Pdc", "PdcTagUtil.findSilverContents()", "root.MSG_GEN_PARAM_VALUE",
         "silverContentsToFiltered = " + silverContentsToFiltered.size());
 
+    List silverContents = new ArrayList();
     if (SiteTagUtil.isDevMode()) {
       return silverContentsToFiltered;
     } else {
@@ -833,7 +1004,7 @@ public class PdcTagUtil implements java.io.Serializable {
           "value = " + value.toString());
 
       // for each value, check if there are some silverContents
-      silverContents = getSilverContents(axisId, value.getFullPath(), componentIds);
+      silverContents = getSilverContentsOnValue(axisId, value.getFullPath(), componentIds);
 
       SilverTrace.info("Pdc", "PdcTagUtil.getFullTreeView()", "root.MSG_GEN_PARAM_VALUE",
           "silverContents.size() = " + silverContents.size());
@@ -0,0 +1,432 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.pdc;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.silverpeas.tags.cache.CacheLoader;
+import com.silverpeas.tags.cache.ExpiringCache;
+import com.stratelia.silverpeas.silvertrace.SilverTrace;
+
+/**
+ * Cache of the trees, paths and synonyms of the PDC axes read by {@link PdcTagUtil}, shared by
+ * all its instances. The axes change very rarely whereas a PdcTagUtil is built for each request
+ * by the pdcView tag: the views are then computed once for an axis, a value, a vocabulary and a
+ * language instead of querying the PDC and the thesaurus on each call.
+ * <p/>
+ * A view is kept thirty minutes at most, or until {@link #invalidate(String)} or {@link #clear()}
+ * is called after a change of the axis. The cache is exposed in JMX under the name
+ * {@value #MBEAN_NAME}.
+ * <p/>
+ * The contents classified on each value of the full tree view of an axis are kept too, for a
+ * user and a set of components, as returned by the PDC search before they are filtered. They are
+ * kept five minutes at most, or until {@link #invalidateContents(String)} is called on a change
+ * of a publication of one of the components. So are the ids of the publications of a component
+ * classified on a value of an axis, kept ten minutes at most.
+ */
+public class PdcTreeCache implements PdcTreeCacheMBean {
+
+  public static final String MBEAN_NAME = "com.silverpeas.tags:type=PdcTreeCache";
+
+  private static final int MAX_VIEWS = 1000;
+  private static final long TIME_TO_LIVE = 30 * 60 * 1000L;
+  private static final int MAX_CONTENTS = 2000;
+  private static final long CONTENTS_TIME_TO_LIVE = 5 * 60 * 1000L;
+  private static final int MAX_CLASSIFICATIONS = 200;
+  private static final long CLASSIFICATIONS_TIME_TO_LIVE = 10 * 60 * 1000L;
+
+  private static volatile PdcTreeCache instance;
+
+  private final ExpiringCache<ViewKey, List> cache =
+      new ExpiringCache<ViewKey, List>("pdcTrees", MAX_VIEWS, TIME_TO_LIVE);
+  private final ExpiringCache<ContentsKey, List> contents =
+      new ExpiringCache<ContentsKey, List>("pdcContents", MAX_CONTENTS, CONTENTS_TIME_TO_LIVE);
+  private final ExpiringCache<ClassificationKey, Set<String>> classifications =
+      new ExpiringCache<ClassificationKey, Set<String>>("classifiedPublications",
+          MAX_CLASSIFICATIONS, CLASSIFICATIONS_TIME_TO_LIVE);
+  private volatile boolean enabled = true;
+
+  private PdcTreeCache() {
+    super();
+  }
+
+  /**
+   * Drops the cache when the application stops: it is removed from JMX so that neither it nor its
+   * class loader are referenced after a redeployment.
+   */
+  public static void shutdown() {
+    synchronized (PdcTreeCache.class) {
+      if (instance != null) {
+        instance.clear();
+        instance.unregister();
+        instance = null;
+      }
+    }
+  }
+
+  public static PdcTreeCache getInstance() {
+    if (instance == null) {
+      synchronized (PdcTreeCache.class) {
+        if (instance == null) {
+          instance = new PdcTreeCache();
+          instance.register();
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Gets a view of an axis, computing it with the given loader if it isn't in the cache. The
+   * cached lists are shared: the callers must copy them before any change.
+   * @param kind the kind of view (tree, path, synonyms...).
+   * @param axisId the id of the axis.
+   * @param valueId the id of the value from which the view is computed, null if none.
+   * @param vocaId the id of the vocabulary of the synonyms, null if none.
+   * @param language the language of the view.
+   * @param loader the loader computing the view.
+   * @return the view.
+   * @throws Exception the exception thrown by the loader.
+   */
+  List get(String kind, String axisId, String valueId, String vocaId, String language,
+      CacheLoader<ViewKey, List> loader) throws Exception {
+    return cache.get(new ViewKey(kind, axisId, valueId, vocaId, language), loader);
+  }
+
+  /**
+   * Gets the contents classified on a value of an axis, searching them with the given loader if
+   * they aren't in the cache. The cached lists are shared: the callers must copy them and their
+   * contents before any change.
+   * @param axisId the id of the axis.
+   * @param valuePath the full path of the value.
+   * @param componentIds the ids of the components in which the contents are searched.
+   * @param userId the id of the user for whom the contents are searched.
+   * @param visibilitySensitive true if the search is restricted to the visible contents.
+   * @param loader the loader searching the contents.
+   * @return the contents classified on the value.
+   * @throws Exception the exception thrown by the loader.
+   */
+  List getContents(String axisId, String valuePath, List<String> componentIds, String userId,
+      boolean visibilitySensitive, CacheLoader<ContentsKey, List> loader) throws Exception {
+    return contents.get(new ContentsKey(axisId, valuePath, componentIds, userId,
+        visibilitySensitive), loader);
+  }
+
+  /**
+   * Gets the ids of the publications of a component classified on a value of an axis, searching
+   * them with the given loader if they aren't in the cache.
+   * @param componentId the id of the component.
+   * @param axisId the id of the axis.
+   * @param valueName the name of the value.
+   * @param loader the loader searching the publications.
+   * @return the ids of the publications classified on the value, as returned by the loader.
+   * @throws Exception the exception thrown by the loader.
+   */
+  Set<String> getClassifiedPublications(String componentId, String axisId, String valueName,
+      CacheLoader<ClassificationKey, Set<String>> loader) throws Exception {
+    return classifications.get(new ClassificationKey(componentId, axisId, valueName), loader);
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    cache.configure(enabled, MAX_VIEWS, TIME_TO_LIVE, 0);
+    contents.configure(enabled, MAX_CONTENTS, CONTENTS_TIME_TO_LIVE, 0);
+    classifications.configure(enabled, MAX_CLASSIFICATIONS, CLASSIFICATIONS_TIME_TO_LIVE, 0);
+  }
+
+  @Override
+  public int getSize() {
+    return cache.size();
+  }
+
+  @Override
+  public long getHitCount() {
+    return cache.getHitCount();
+  }
+
+  @Override
+  public long getMissCount() {
+    return cache.getMissCount();
+  }
+
+  @Override
+  public double getHitRate() {
+    return cache.getHitRate();
+  }
+
+  /**
+   * Forgets the views of an axis, after a change of its values or of their synonyms.
+   * @param axisId the id of the axis.
+   */
+  @Override
+  public void invalidate(String axisId) {
+    for (ViewKey key : cache.keys()) {
+      if (key.axisId.equals(axisId)) {
+        cache.invalidate(key);
+      }
+    }
+    for (ContentsKey key : contents.keys()) {
+      if (key.axisId.equals(axisId)) {
+        contents.invalidate(key);
+      }
+    }
+    for (ClassificationKey key : classifications.keys()) {
+      if (key.axisId.equals(axisId)) {
+        classifications.invalidate(key);
+      }
+    }
+  }
+
+  /**
+   * Forgets the contents and the publications classified on the values of the axes in a
+   * component, after a change of one of its publications or of their classification.
+   * @param componentId the id of the component.
+   */
+  @Override
+  public void invalidateContents(String componentId) {
+    for (ContentsKey key : contents.keys()) {
+      if (key.componentIds.contains(componentId)) {
+        contents.invalidate(key);
+      }
+    }
+    for (ClassificationKey key : classifications.keys()) {
+      if (componentId.equals(key.componentId)) {
+        classifications.invalidate(key);
+      }
+    }
+  }
+
+  /**
+   * Forgets the contents and the publications classified on the values of all the axes.
+   */
+  @Override
+  public void invalidateContents() {
+    contents.invalidateAll();
+    classifications.invalidateAll();
+  }
+
+  /**
+   * Forgets the views of all the axes.
+   */
+  @Override
+  public void clear() {
+    cache.invalidateAll();
+    contents.invalidateAll();
+    classifications.invalidateAll();
+  }
+
+  private void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      // the instance of a previous deployment is replaced
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+    } catch (Exception e) {
+      SilverTrace.warn("Pdc", "PdcTreeCache.register()", "root.MSG_GEN_PARAM_VALUE",
+          "JMX registration failed", e);
+    }
+  }
+
+  private void unregister() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    } catch (Exception e) {
+      SilverTrace.warn("Pdc", "PdcTreeCache.unregister()", "root.MSG_GEN_PARAM_VALUE",
+          "JMX unregistration failed", e);
+    }
+  }
+
+  /**
+   * Key of a view: the parameters from which it is computed, kept apart so that the views of an
+   * axis are found without parsing the keys.
+   */
+  static final class ViewKey {
+
+    final String kind;
+    final String axisId;
+    final String valueId;
+    final String vocaId;
+    final String language;
+
+    ViewKey(String kind, String axisId, String valueId, String vocaId, String language) {
+      this.kind = kind;
+      this.axisId = axisId;
+      this.valueId = valueId;
+      this.vocaId = vocaId;
+      this.language = language;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ViewKey)) {
+        return false;
+      }
+      ViewKey other = (ViewKey) obj;
+      return same(kind, other.kind) && same(axisId, other.axisId) &&
+          same(valueId, other.valueId) && same(vocaId, other.vocaId) &&
+          same(language, other.language);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = hash(kind);
+      hash = 31 * hash + hash(axisId);
+      hash = 31 * hash + hash(valueId);
+      hash = 31 * hash + hash(vocaId);
+      hash = 31 * hash + hash(language);
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return kind + " of axis " + axisId + " (value " + valueId + ", vocabulary " + vocaId +
+          ", language " + language + ")";
+    }
+
+    private static boolean same(String a, String b) {
+      return (a == null) ? b == null : a.equals(b);
+    }
+
+    private static int hash(String s) {
+      return (s == null) ? 0 : s.hashCode();
+    }
+  }
+
+  /**
+   * Key of the contents classified on a value: the parameters of the PDC search.
+   */
+  static final class ContentsKey {
+
+    final String axisId;
+    final String valuePath;
+    final List<String> componentIds;
+    final String userId;
+    final boolean visibilitySensitive;
+
+    ContentsKey(String axisId, String valuePath, List<String> componentIds, String userId,
+        boolean visibilitySensitive) {
+      this.axisId = axisId;
+      this.valuePath = valuePath;
+      this.componentIds = new ArrayList<String>(componentIds);
+      this.userId = userId;
+      this.visibilitySensitive = visibilitySensitive;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ContentsKey)) {
+        return false;
+      }
+      ContentsKey other = (ContentsKey) obj;
+      return visibilitySensitive == other.visibilitySensitive &&
+          ViewKey.same(axisId, other.axisId) && ViewKey.same(valuePath, other.valuePath) &&
+          componentIds.equals(other.componentIds) && ViewKey.same(userId, other.userId);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = ViewKey.hash(axisId);
+      hash = 31 * hash + ViewKey.hash(valuePath);
+      hash = 31 * hash + componentIds.hashCode();
+      hash = 31 * hash + ViewKey.hash(userId);
+      hash = 31 * hash + (visibilitySensitive ? 1 : 0);
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return "contents of value " + valuePath + " of axis " + axisId + " in " + componentIds +
+          " for user " + userId;
+    }
+  }
+
+  /**
+   * Key of the publications of a component classified on a value of an axis.
+   */
+  static final class ClassificationKey {
+
+    final String componentId;
+    final String axisId;
+    final String valueName;
+
+    ClassificationKey(String componentId, String axisId, String valueName) {
+      this.componentId = componentId;
+      this.axisId = axisId;
+      this.valueName = valueName;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ClassificationKey)) {
+        return false;
+      }
+      ClassificationKey other = (ClassificationKey) obj;
+      return ViewKey.same(componentId, other.componentId) && ViewKey.same(axisId, other.axisId) &&
+          ViewKey.same(valueName, other.valueName);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = ViewKey.hash(componentId);
+      hash = 31 * hash + ViewKey.hash(axisId);
+      hash = 31 * hash + ViewKey.hash(valueName);
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return "publications of " + componentId + " classified on " + valueName + " of axis " +
+          axisId;
+    }
+  }
+}
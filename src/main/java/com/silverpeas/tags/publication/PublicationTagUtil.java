@@ -30,9 +30,13 @@
  */
 package com.silverpeas.tags.publication;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
+import com.silverpeas.tags.cache.ExpiringCache;
 import com.silverpeas.tags.util.SiteTagUtil;
 
 import com.stratelia.silverpeas.silvertrace.SilverTrace;
@@ -49,20 +53,47 @@ import com.stratelia.webactiv.util.publication.model.PublicationRuntimeException
 
 public class PublicationTagUtil {
 
-  private PublicationBm publicationBm = null;
-  private NodeBm nodeBm = null;
+  // références EJB obtenues à la demande, éventuellement depuis les threads de lecture des
+  // résultats de recherche : une référence obtenue deux fois est sans conséquence
+  private volatile PublicationBm publicationBm = null;
+  private volatile NodeBm nodeBm = null;
+  // décisions de visibilité par mode du site et publication
+  private final ExpiringCache<String, Boolean> visibilities =
+      new ExpiringCache<String, Boolean>("publicationVisibility", 2000, 60 * 1000L);
+  // visibilité du chemin de la racine à un thème, par thème
+  private final ExpiringCache<String, Boolean> visiblePaths =
+      new ExpiringCache<String, Boolean>("visiblePaths", 2000, 60 * 1000L);
 
   public PublicationTagUtil() {
   }
 
+  /**
+   * @param pubPK la publication à vérifier
+   * @return true si la publication est visible dans le mode courant du site. La décision est
+   * mémorisée pour la publication et le mode du site, les appels suivants ne coûtent aucun appel
+   * aux EJB.
+   * @throws Exception
+   */
   public boolean isPublicationVisible(PublicationPK pubPK) throws Exception {
-    PublicationDetail pubDetail = null;
-    try {
-      pubDetail = getPublicationBm().getDetail(pubPK);
-    } catch (Exception e) {
-      SilverTrace.info("searchEngine", "SearchEngineTagUtil.isMatchingIndexEntryVisible()",
-          "root.MSG_GEN_PARAM_VALUE", "pubDetail mie.getObjectId() not found ! ");
+    String key = getSiteMode() + "|" + pubPK.getInstanceId() + "|" + pubPK.getId();
+    Boolean visible = visibilities.getIfPresent(key);
+    if (visible == null) {
+      PublicationDetail pubDetail = null;
+      try {
+        pubDetail = getPublicationBm().getDetail(pubPK);
+      } catch (Exception e) {
+        SilverTrace.info("searchEngine", "SearchEngineTagUtil.isMatchingIndexEntryVisible()",
+            "root.MSG_GEN_PARAM_VALUE", "pubDetail mie.getObjectId() not found ! ");
+        // erreur éventuellement passagère : la décision n'est pas mémorisée
+        return false;
+      }
+      visible = isPublicationVisible(pubDetail);
+      visibilities.put(key, visible);
     }
+    return visible;
+  }
+
+  private boolean isPublicationVisible(PublicationDetail pubDetail) throws Exception {
     if (pubDetail != null) {
       String pubStatus = pubDetail.getStatus();
       SilverTrace.info("searchEngine", "PublicationTagUtil.isPublicationVisible()",
@@ -88,6 +119,14 @@ public class PublicationTagUtil {
     return false;
   }
 
+  /**
+   * Oublie les décisions de visibilité mémorisées.
+   */
+  public void clearCache() {
+    visibilities.invalidateAll();
+    visiblePaths.invalidateAll();
+  }
+
   /**
    * @param pub la publication à vérifier
    * @return true si la publication est dans un thème "visible sur le web" (de la racine au thème)
@@ -97,20 +136,67 @@ public class PublicationTagUtil {
     // Recupere tous les thèmes dans lesquels la publication est classée
     Collection<NodePK> allFathers = getPublicationBm().getAllFatherPK(pub.getPK());
     for (NodePK fatherPK : allFathers) {
-      // Recupere le chemin de la racine jusqu'au père
-      List path = (List) getNodeBm().getAnotherPath(fatherPK);
-      if (isAVisiblePath(path)) {
+      if (isInVisiblePath(fatherPK)) {
         return true;
       }
     }
     return false;
   }
 
-  private boolean isAVisiblePath(List path) {
+  /**
+   * @param nodePK un thème
+   * @return true si tous les thèmes de la racine au thème sont visibles. Le chemin n'est demandé
+   * qu'une fois : la visibilité de chacun des thèmes qui le composent est mémorisée et partagée
+   * par toutes les publications.
+   */
+  private boolean isInVisiblePath(NodePK nodePK) throws Exception {
+    Boolean visible = visiblePaths.getIfPresent(getNodeKey(nodePK.getInstanceId(),
+        nodePK.getId()));
+    if (visible == null) {
+      // Recupere le chemin de la racine jusqu'au père
+      List<NodeDetail> path = new ArrayList<NodeDetail>(getNodeBm().getAnotherPath(nodePK));
+      visible = isAVisiblePath(path);
+      rememberVisiblePaths(nodePK.getInstanceId(), path);
+    }
+    return visible;
+  }
+
+  /**
+   * Mémorise la visibilité de chaque thème du chemin : un thème est sur un chemin visible si lui
+   * et ses ancêtres (les thèmes de niveau inférieur) sont visibles.
+   */
+  private void rememberVisiblePaths(String instanceId, List<NodeDetail> path) {
+    Collections.sort(path, new Comparator<NodeDetail>() {
+      @Override
+      public int compare(NodeDetail o1, NodeDetail o2) {
+        return o1.getLevel() - o2.getLevel();
+      }
+    });
+    boolean visible = true;
+    for (NodeDetail node : path) {
+      visible = visible && !"Invisible".equals(node.getStatus());
+      visiblePaths.put(getNodeKey(instanceId, node.getNodePK().getId()), visible);
+    }
+  }
+
+  private String getNodeKey(String instanceId, String nodeId) {
+    return instanceId + "|" + nodeId;
+  }
+
+  private String getSiteMode() {
+    if (SiteTagUtil.isDevMode()) {
+      return "dev";
+    } else if (SiteTagUtil.isRecetteMode()) {
+      return "recette";
+    }
+    return "prod";
+  }
+
+  private boolean isAVisiblePath(List<NodeDetail> path) {
     boolean isVisible = true;
     NodeDetail node;
     for (int n = 0; n < path.size(); n++) {
-      node = (NodeDetail) path.get(n);
+      node = path.get(n);
       if ("Invisible".equals(node.getStatus())) {
         return false;
       }
@@ -119,27 +205,30 @@ public class PublicationTagUtil {
   }
 
   private PublicationBm getPublicationBm() {
-    if (publicationBm == null) {
+    PublicationBm bm = publicationBm;
+    if (bm == null) {
       try {
-        publicationBm = EJBUtilitaire.getEJBObjectRef(JNDINames.PUBLICATIONBM_EJBHOME,
-                PublicationBm.class);
+        bm = EJBUtilitaire.getEJBObjectRef(JNDINames.PUBLICATIONBM_EJBHOME, PublicationBm.class);
       } catch (Exception e) {
         throw new PublicationRuntimeException("PublicationTagUtil.getPublicationBm",
             SilverpeasRuntimeException.ERROR, "root.EX_CANT_GET_REMOTE_OBJECT", e);
       }
+      publicationBm = bm;
     }
-    return publicationBm;
+    return bm;
   }
 
   private NodeBm getNodeBm() {
-    if (nodeBm == null) {
+    NodeBm bm = nodeBm;
+    if (bm == null) {
       try {
-        nodeBm = EJBUtilitaire.getEJBObjectRef(JNDINames.NODEBM_EJBHOME, NodeBm.class);
+        bm = EJBUtilitaire.getEJBObjectRef(JNDINames.NODEBM_EJBHOME, NodeBm.class);
       } catch (Exception e) {
         throw new PublicationRuntimeException("PublicationTagUtil.getNodeBm",
             SilverpeasRuntimeException.ERROR, "root.EX_CANT_GET_REMOTE_OBJECT", e);
       }
+      nodeBm = bm;
     }
-    return nodeBm;
+    return bm;
   }
 }
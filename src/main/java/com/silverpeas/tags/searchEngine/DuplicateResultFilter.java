@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.searchEngine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Filters the duplicate results of a search: a publication and its wysiwyg content are both
+ * indexed, so a word found in both would give two results for the same publication. Only the first
+ * of them is kept, whatever its type.
+ * <p/>
+ * The results already seen are held in a hash map keyed by object id and component, so each result
+ * is checked in constant time. An instance is meant to filter the results of one search and is not
+ * thread-safe.
+ */
+public class DuplicateResultFilter {
+
+  public static final String PUBLICATION = "Publication";
+  public static final String WYSIWYG = "Wysiwyg";
+
+  // type of the first result kept for an object
+  private final Map<ObjectKey, String> keptTypes;
+
+  public DuplicateResultFilter() {
+    this(16);
+  }
+
+  /**
+   * @param expectedSize the expected number of results.
+   */
+  public DuplicateResultFilter(int expectedSize) {
+    keptTypes = new HashMap<ObjectKey, String>(expectedSize * 4 / 3 + 1);
+  }
+
+  /**
+   * @param objectId the id of the object found.
+   * @param objectType the type of the object found.
+   * @param component the id of the component of the object.
+   * @return false if the result is the publication or the wysiwyg of an object already accepted
+   * with the other type, true otherwise.
+   */
+  public boolean accept(String objectId, String objectType, String component) {
+    if (!PUBLICATION.equals(objectType) && !WYSIWYG.equals(objectType)) {
+      return true;
+    }
+    ObjectKey key = new ObjectKey(objectId, component);
+    String keptType = keptTypes.get(key);
+    if (keptType == null) {
+      keptTypes.put(key, PUBLICATION.equals(objectType) ? PUBLICATION : WYSIWYG);
+      return true;
+    }
+    return keptType.equals(objectType);
+  }
+
+  private static final class ObjectKey {
+
+    private final String objectId;
+    private final String component;
+    private final int hash;
+
+    ObjectKey(String objectId, String component) {
+      this.objectId = objectId;
+      this.component = component;
+      this.hash = 31 * (objectId == null ? 0 : objectId.hashCode()) +
+          (component == null ? 0 : component.hashCode());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ObjectKey)) {
+        return false;
+      }
+      ObjectKey other = (ObjectKey) obj;
+      return hash == other.hash && equals(objectId, other.objectId) &&
+          equals(component, other.component);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    private static boolean equals(String s1, String s2) {
+      return s1 == null ? s2 == null : s1.equals(s2);
+    }
+  }
+}
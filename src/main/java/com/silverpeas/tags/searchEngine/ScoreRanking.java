@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.searchEngine;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.silverpeas.search.searchEngine.model.MatchingIndexEntry;
+
+/**
+ * The entries of a search ranked by decreasing score, in the same order as a stable sort with
+ * {@link org.silverpeas.search.searchEngine.model.ScoreComparator}, but ranked only when they are
+ * read.
+ * <p/>
+ * The first read selects the best entries with a bounded heap instead of sorting all of them: the
+ * cost is O(n log k) for the k entries ranked instead of O(n log n). The next entries are selected
+ * the same way, at least twice as many each time, when the reading goes beyond the entries
+ * already ranked. This class is thread-safe.
+ */
+class ScoreRanking extends AbstractList<MatchingIndexEntry> {
+
+  // best first, ties kept in the order of the entries
+  private static final Comparator<Rank> BEST_FIRST = new Comparator<Rank>() {
+    @Override
+    public int compare(Rank r1, Rank r2) {
+      int byScore = Float.compare(r2.entry.getScore(), r1.entry.getScore());
+      return byScore != 0 ? byScore : r1.position - r2.position;
+    }
+  };
+  private static final Comparator<Rank> WORST_FIRST = Collections.reverseOrder(BEST_FIRST);
+
+  private final int size;
+  private final int firstRanking;
+  private final List<MatchingIndexEntry> ranked;
+  private List<Rank> unranked;
+
+  /**
+   * @param entries the entries to rank, in the order of the search.
+   * @param firstRanking the number of entries to rank at the first read, 0 to rank only the
+   * entries read.
+   */
+  ScoreRanking(List<MatchingIndexEntry> entries, int firstRanking) {
+    this.size = entries.size();
+    this.firstRanking = firstRanking;
+    this.ranked = new ArrayList<MatchingIndexEntry>(Math.min(size, Math.max(firstRanking, 16)));
+    this.unranked = new ArrayList<Rank>(size);
+    for (int i = 0; i < size; i++) {
+      unranked.add(new Rank(entries.get(i), i));
+    }
+  }
+
+  @Override
+  public synchronized MatchingIndexEntry get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    if (index >= ranked.size()) {
+      rank(Math.max(index + 1, Math.max(firstRanking, 2 * ranked.size())));
+    }
+    return ranked.get(index);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of entries already ranked.
+   */
+  synchronized int getRankedCount() {
+    return ranked.size();
+  }
+
+  /**
+   * Ranks the best entries not yet ranked until the given number of entries are ranked.
+   */
+  private void rank(int count) {
+    int k = count - ranked.size();
+    if (k >= unranked.size()) {
+      Collections.sort(unranked, BEST_FIRST);
+      for (Rank rank : unranked) {
+        ranked.add(rank.entry);
+      }
+      unranked = Collections.emptyList();
+      return;
+    }
+    // the worst of the best entries found so far is at the head of the heap
+    PriorityQueue<Rank> best = new PriorityQueue<Rank>(k, WORST_FIRST);
+    for (Rank rank : unranked) {
+      if (best.size() < k) {
+        best.add(rank);
+      } else if (BEST_FIRST.compare(rank, best.peek()) < 0) {
+        best.poll();
+        best.add(rank);
+      }
+    }
+    Rank[] selection = new Rank[best.size()];
+    for (int i = selection.length - 1; i >= 0; i--) {
+      selection[i] = best.poll();
+      selection[i].selected = true;
+    }
+    for (Rank rank : selection) {
+      ranked.add(rank.entry);
+    }
+    List<Rank> remaining = new ArrayList<Rank>(unranked.size() - selection.length);
+    for (Rank rank : unranked) {
+      if (!rank.selected) {
+        remaining.add(rank);
+      }
+    }
+    unranked = remaining;
+  }
+
+  private static final class Rank {
+
+    private final MatchingIndexEntry entry;
+    private final int position;
+    private boolean selected = false;
+
+    Rank(MatchingIndexEntry entry, int position) {
+      this.entry = entry;
+      this.position = position;
+    }
+  }
+}
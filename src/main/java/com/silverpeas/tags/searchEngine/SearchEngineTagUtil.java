@@ -24,13 +24,12 @@
 
 package com.silverpeas.tags.searchEngine;
 
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,12 +38,13 @@ import org.silverpeas.search.SearchEngineFactory;
 import org.silverpeas.search.indexEngine.model.SpaceComponentPair;
 import org.silverpeas.search.searchEngine.model.MatchingIndexEntry;
 import org.silverpeas.search.searchEngine.model.QueryDescription;
-import org.silverpeas.search.searchEngine.model.ScoreComparator;
 
 import com.silverpeas.admin.ejb.AdminBmRuntimeException;
 import com.silverpeas.admin.ejb.AdminBusiness;
 import com.silverpeas.pdc.ejb.PdcBm;
 import com.silverpeas.pdc.ejb.PdcBmRuntimeException;
+import com.silverpeas.tags.cache.CacheLoader;
+import com.silverpeas.tags.cache.ExpiringCache;
 import com.silverpeas.tags.publication.PublicationTagUtil;
 import com.silverpeas.tags.util.SiteTagUtil;
 import com.silverpeas.util.StringUtil;
@@ -53,7 +53,6 @@ import com.stratelia.silverpeas.contentManager.GlobalSilverContent;
 import com.stratelia.silverpeas.contentManager.GlobalSilverContentI18N;
 import com.stratelia.silverpeas.pdc.model.SearchContext;
 import com.stratelia.silverpeas.silvertrace.SilverTrace;
-import com.stratelia.webactiv.util.DateUtil;
 import com.stratelia.webactiv.util.EJBUtilitaire;
 import com.stratelia.webactiv.util.JNDINames;
 import com.stratelia.webactiv.util.exception.SilverpeasRuntimeException;
@@ -64,83 +63,246 @@ public class SearchEngineTagUtil implements java.io.Serializable {
   private static final String COMPONENT_PUBLICATION_PREFIX = "kmelia";
   private static final String COMPONENT_FORUM_PREFIX = "forums";
   private static final long serialVersionUID = 1L;
-  private String query;
-  private String spaceId;
-  private String componentId;
-  private String authorId;
-  private String afterDate;
-  private String beforeDate;
-  private SearchContext pdcContext;
-  private String userId;
-  private Map<String, String> xmlQuery;
-  private String xmlTemplate;
-  private String xmlTitle;
-  private boolean publicationEnabled;
-  private boolean forumEnabled;
+  // spaces and components available for a search, by user and search settings
+  private static final ExpiringCache<String, Set<SpaceComponentPair>> scopes =
+      new ExpiringCache<String, Set<SpaceComponentPair>>("searchScopes", 1000, 10 * 60 * 1000L);
+  // settings of the search when it isn't given as a SearchRequest
+  private final SearchRequest.Builder requestBuilder;
+  private SearchRequest request = null;
   private PdcBm pdcBm = null;
   private AdminBusiness adminBm = null;
   private PublicationTagUtil publicationTagUtil = null;
+  private int pageSize = 0;
+  private int page = 1;
+  private int topK = 0;
+  private long timeout = 0;
+  private boolean failOnTimeout = false;
+  private transient SearchResults searchResults = null;
   private final String ALL_SPACES = "*";
-  private final String ALL_AUTHORS = "*";
   private final String ALL_COMPONENTS = "*";
 
   public SearchEngineTagUtil(String query, String spaceId, String componentId, String authorId,
       String afterDate, String beforeDate, String publicationEnabled, String forumEnabled) {
-    this.query = query;
-    this.spaceId = spaceId;
-    this.componentId = componentId;
-    this.authorId = authorId;
-    this.afterDate = afterDate;
-    this.beforeDate = beforeDate;
-    this.publicationEnabled = "true".equals(publicationEnabled);
-    this.forumEnabled = "true".equals(forumEnabled);
+    this.requestBuilder = new SearchRequest.Builder().query(query).spaceId(spaceId)
+        .componentId(componentId).authorId(authorId).afterDate(afterDate).beforeDate(beforeDate)
+        .publicationEnabled("true".equals(publicationEnabled))
+        .forumEnabled("true".equals(forumEnabled));
+  }
+
+  /**
+   * @param request the search to process, built once for instance by the searchEngine tag
+   */
+  public SearchEngineTagUtil(SearchRequest request) {
+    this.requestBuilder = null;
+    this.request = request;
   }
 
   public void setPdcContext(SearchContext pdcContext) {
-    this.pdcContext = pdcContext;
+    getRequestBuilder().pdcContext(pdcContext);
   }
 
   public void setXmlQuery(Map<String, String> xmlQuery) {
-    this.xmlQuery = xmlQuery;
+    getRequestBuilder().xmlQuery(xmlQuery);
   }
 
   public void setXmlTemplate(String xmlTemplate) {
-    this.xmlTemplate = xmlTemplate;
+    getRequestBuilder().xmlTemplate(xmlTemplate);
+  }
+
+  public void setXmlTitle(String xmlTitle) {
+    getRequestBuilder().xmlTitle(xmlTitle);
+  }
+
+  public void setUserId(String userId) {
+    getRequestBuilder().userId(userId);
+  }
+
+  private SearchRequest.Builder getRequestBuilder() {
+    if (requestBuilder == null) {
+      throw new IllegalStateException("The search is given as a SearchRequest");
+    }
+    request = null;
+    searchResults = null;
+    return requestBuilder;
+  }
+
+  /**
+   * @return the description of the search
+   * @throws ParseException if a date of the search isn't formatted as dd/MM/yyyy
+   */
+  public SearchRequest getRequest() throws ParseException {
+    if (request == null) {
+      request = requestBuilder.build();
+    }
+    return request;
   }
 
   public Collection getResults() throws Exception {
+    return getResults(0, -1);
+  }
+
+  /**
+   * Gets a page of the results. The results are checked for visibility and converted only until
+   * the page is full, so the cost of a page depends on its position and size rather than on the
+   * number of hits. The search itself is processed once for this object.
+   *
+   * @param offset the number of visible results to skip
+   * @param limit the maximum number of results to return, negative for all of them
+   * @return the visible results of the page
+   * @throws Exception
+   */
+  public List<GlobalSilverContent> getResults(int offset, int limit) throws Exception {
+    long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+    return getSearchResults().getResults(offset, limit, new HitReader(), deadline, failOnTimeout);
+  }
+
+  /**
+   * Sets the time budget of the reading of the results: the visibility of the hits is checked in
+   * parallel, and a call to {@link #getResults(int, int)} doesn't wait for the slow checks beyond
+   * this delay.
+   *
+   * @param timeout the delay in milliseconds, 0 for no limit
+   * @param failOnTimeout true to fail when the delay is over, false to return the results read so
+   * far
+   */
+  public void setTimeout(long timeout, boolean failOnTimeout) {
+    this.timeout = timeout;
+    this.failOnTimeout = failOnTimeout;
+  }
+
+  /**
+   * Gets the page of results set by {@link #setPage(int)} and {@link #setPageSize(int)}, or all
+   * the results if no page size is set.
+   *
+   * @return the visible results of the current page
+   * @throws Exception
+   */
+  public List<GlobalSilverContent> getPageResults() throws Exception {
+    if (pageSize <= 0) {
+      return getResults(0, -1);
+    }
+    return getResults((Math.max(page, 1) - 1) * pageSize, pageSize);
+  }
+
+  /**
+   * Gets the number of hits of the search, without checking their visibility: some of them may
+   * not be displayed, so this count is an upper bound of the number of results. It is computed
+   * without any call to the EJBs once the search is processed.
+   *
+   * @return the number of hits
+   * @throws Exception
+   */
+  public int getResultCount() throws Exception {
+    return getSearchResults().getHitCount();
+  }
+
+  /**
+   * @return the number of pages according to {@link #getResultCount()}, 1 if no page size is set
+   * @throws Exception
+   */
+  public int getPageCount() throws Exception {
+    if (pageSize <= 0) {
+      return 1;
+    }
+    return Math.max(1, (getResultCount() + pageSize - 1) / pageSize);
+  }
+
+  public void setPageSize(int pageSize) {
+    this.pageSize = pageSize;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * @param page the number of the page to display, starting at 1
+   */
+  public void setPage(int page) {
+    this.page = page;
+  }
+
+  public int getPage() {
+    return page;
+  }
+
+  /**
+   * Sets the number of best hits of a mixed search (PDC and full text) to rank by score when the
+   * results are first read. The other hits are ranked only if the reading goes further. By
+   * default, the hits up to the current page are ranked.
+   *
+   * @param topK the number of hits to rank first, 0 for the default
+   */
+  public void setTopK(int topK) {
+    this.topK = topK;
+  }
+
+  public int getTopK() {
+    return topK;
+  }
+
+  private int getFirstRanking() {
+    if (topK > 0) {
+      return topK;
+    }
+    return pageSize > 0 ? Math.max(page, 1) * pageSize : 0;
+  }
+
+  /**
+   * Gets the hits of the search, processing it once for this object. The searches of the site
+   * visitors are shared through the {@link SearchResultCache}.
+   */
+  private SearchResults getSearchResults() throws Exception {
+    if (searchResults == null) {
+      SearchResultCache cache = SearchResultCache.getInstance();
+      if (cache.isEnabled()) {
+        searchResults = cache.get(getRequest().getKey(), new CacheLoader<String, SearchResults>() {
+          @Override
+          public SearchResults load(String key) throws Exception {
+            return search();
+          }
+        });
+      } else {
+        searchResults = search();
+      }
+    }
+    return searchResults;
+  }
+
+  /**
+   * Processes the search: the hits are returned unchecked, either as silver contents (search on
+   * the PDC only) or as index entries (full text search).
+   */
+  @SuppressWarnings("unchecked")
+  private SearchResults search() throws Exception {
+    SearchRequest request = getRequest();
+    if (isTraceable()) {
+      SilverTrace.info("searchEngine", "SearchEngineTagUtil.getResults()",
+          "root.MSG_GEN_PARAM_VALUE", "request = " + request);
+    }
+
     // build the search
-    QueryDescription theQuery = new QueryDescription(getQuery());
+    QueryDescription theQuery = new QueryDescription(request.getQuery());
 
     // Set the identity of the user who processing the search
-    theQuery.setSearchingUser(getUserId());
+    theQuery.setSearchingUser(request.getUserId());
 
     // Set the list of all components which are available for the user
-    buildSpaceComponentAvailableForUser(theQuery, getSpaceId(), getComponentId());
+    buildSpaceComponentAvailableForUser(theQuery, request.getSpaceId(),
+        request.getComponentId());
 
     // Set the filter according dates
-    String afterDateSQL = getAfterDate();
+    String afterDateSQL = request.getAfterDate();
     theQuery.setRequestedCreatedAfter(afterDateSQL);
-    SilverTrace.info("searchEngine", "SearchEngineTagUtil.getResults()",
-        "root.MSG_GEN_PARAM_VALUE",
-        "After date set !");
-
-    String beforeDateSQL = getBeforeDate();
+    String beforeDateSQL = request.getBeforeDate();
     theQuery.setRequestedCreatedBefore(beforeDateSQL);
-    SilverTrace.info("searchEngine", "SearchEngineTagUtil.getResults()",
-        "root.MSG_GEN_PARAM_VALUE",
-        "Before date set !");
 
     // Set the filter on a particular author
-    theQuery.setRequestedAuthor(getAuthorId());
-    SilverTrace.info("searchEngine", "SearchEngineTagUtil.getResults()",
-        "root.MSG_GEN_PARAM_VALUE",
-        "authorId set !");
+    theQuery.setRequestedAuthor(request.getAuthorId());
 
     List<String> alSilverContentIds = new ArrayList<String>();
-    List<GlobalSilverContent> silverContents = new ArrayList<GlobalSilverContent>();
 
-    if (getPdcContext() != null && !getPdcContext().isEmpty()) {
+    if (request.hasPdcContext()) {
       // the search context is not empty. We have to search all silvercontentIds according to query
       // settings
       SilverTrace.info("searchEngine", "SearchEngineTagUtil.getResults()",
@@ -166,51 +328,32 @@ public class SearchEngineTagUtil implements java.io.Serializable {
         // compte de la colonne isVisible.
         visibilitySensitive = false;
       }
-      alSilverContents = getPdcBm().findGlobalSilverContents(getPdcContext(), alComponentIds,
-          getAuthorId(), afterDateSQL, beforeDateSQL, true, visibilitySensitive);
+      alSilverContents = getPdcBm().findGlobalSilverContents(request.getPdcContext(),
+          alComponentIds, request.getAuthorId(), afterDateSQL, beforeDateSQL, true,
+          visibilitySensitive);
 
       GlobalSilverContent silverContent;
-      if (getQuery() != null && getQuery().length() > 0) {
+      if (request.getQuery() != null && request.getQuery().length() > 0) {
         // extract the silvercontent ids
         for (int sc = 0; sc < alSilverContents.size(); sc++) {
           silverContent = (GlobalSilverContent) alSilverContents.get(sc);
           alSilverContentIds.add(silverContent.getId());
         }
       } else {
-        for (int sc = 0; sc < alSilverContents.size(); sc++) {
-          silverContent = (GlobalSilverContent) alSilverContents.get(sc);
-          if (isSilverContentVisible(silverContent)) {
-            silverContents.add(getTranslatedGlobalSilveContent(silverContent, null));
-          }
-        }
-        return silverContents;
+        // the visibility is checked while the results are read
+        return SearchResults.ofSilverContents(alSilverContents);
       }
 
       SilverTrace.info("searchEngine", "SearchEngineTagUtil.getResults()",
           "root.MSG_GEN_PARAM_VALUE", "silverContentId list returned !");
     }
 
-    if (xmlQuery != null && !xmlQuery.isEmpty() && xmlTemplate != null) {
-      Map<String, String> newXmlQuery = new HashMap<String, String>();
-
-      Set<String> keys = xmlQuery.keySet();
-      Iterator<String> i = keys.iterator();
-      while (i.hasNext()) {
-        String key = i.next();
-        String value = xmlQuery.get(key);
-        value = value.trim().replaceAll("##", " AND ");
-        newXmlQuery.put(xmlTemplate + "$$" + key, value);
-
-        SilverTrace.info("searchEngine", "SearchEngineTagUtil.getResults()",
-            "root.MSG_GEN_PARAM_VALUE",
-            "newXmlQuery.put(" + xmlTemplate + "$$" + key + "," + value + ")");
-      }
-
-      theQuery.setXmlQuery(newXmlQuery);
+    if (request.getXmlQuery() != null) {
+      theQuery.setXmlQuery(new HashMap<String, String>(request.getXmlQuery()));
     }
 
-    if (xmlTitle != null && !xmlTitle.isEmpty() && !"null".equals(xmlTitle)) {
-      theQuery.setXmlTitle(xmlTitle);
+    if (request.getXmlTitle() != null) {
+      theQuery.setXmlTitle(request.getXmlTitle());
       if (theQuery.getXmlQuery() == null) {
         theQuery.setXmlQuery(new HashMap<String, String>()); // Mandatory to launch xml search
       }
@@ -231,11 +374,13 @@ public class SearchEngineTagUtil implements java.io.Serializable {
       SilverTrace.info("searchEngine", "SearchEngineTagUtil.getResults()",
           "root.MSG_GEN_PARAM_VALUE", "results retrieved !");
 
-      if (getPdcContext() != null && !getPdcContext().isEmpty()) {
+      if (request.hasPdcContext()) {
         // We retain only objects which are presents in the both search result list
         result = mixedSearch(fullTextResult, alSilverContentIds);
         SilverTrace.info("searchEngine", "SearchEngineTagUtil.getResults()",
             "root.MSG_GEN_PARAM_VALUE", "both searches have been mixed !");
+        // the common objects are ranked by score as far as they are read
+        return SearchResults.ofScoredEntries(result, getFirstRanking());
       } else {
         result = fullTextResult;
         SilverTrace.info("searchEngine", "SearchEngineTagUtil.getResults()",
@@ -243,86 +388,103 @@ public class SearchEngineTagUtil implements java.io.Serializable {
       }
     }
 
-    if (result != null) {
-      // get each result according to result's list
-      GlobalSilverContent silverContent;
-      List<String> returnedObjects = new LinkedList<String>();
-      for (MatchingIndexEntry mie : result) {
-        SilverTrace
-            .info("searchEngine", "SearchEngineTagUtil.getResults()",
-                "root.MSG_GEN_PARAM_VALUE",
-                "mie.getTitle() = " + mie.getTitle() + ", mie.getObjectType() = " +
-                mie.getObjectType());
-        if (mie.getTitle().endsWith("wysiwyg.txt")) {
-          // we don't show it as result.
-        } else {
-          // Added by NEY - 22/01/2004
-          // Some explanations to lines below
-          // If a publication have got the word "truck" in its title and an associated wysiwyg which
-          // content the same word
-          // The search engine will return 2 same lines (One for the publication and the other for
-          // the wysiwyg)
-          // Following lines filters one and only one line. The choice between both lines is not
-          // important.
-          if ("Wysiwyg".equals(mie.getObjectType())) {
-            // We must search if the eventual associated Publication have not been already added to
-            // the result
-            String objectIdAndObjectType =
-                mie.getObjectId() + "&&Publication&&" + mie.getComponent();
-            if (returnedObjects.contains(objectIdAndObjectType)) {
-              // the Publication have already been added
-              continue;
-            } else {
-              objectIdAndObjectType = mie.getObjectId() + "&&Wysiwyg&&" + mie.getComponent();
-              returnedObjects.add(objectIdAndObjectType);
-            }
-          } else if ("Publication".equals(mie.getObjectType())) {
-            // We must search if the eventual associated Wysiwyg have not been already added to the
-            // result
-            String objectIdAndObjectType = mie.getObjectId() + "&&Wysiwyg&&" + mie.getComponent();
-            if (returnedObjects.contains(objectIdAndObjectType)) {
-              // the Wysiwyg have already been added
-              continue;
-            } else {
-              objectIdAndObjectType = mie.getObjectId() + "&&Publication&&" + mie.getComponent();
-              returnedObjects.add(objectIdAndObjectType);
-            }
-          }
+    if (result == null) {
+      result = new ArrayList<MatchingIndexEntry>();
+    }
+    return SearchResults.ofIndexEntries(result);
+  }
 
-          silverContent = matchingIndexEntry2SilverContent(mie);
-          if (silverContent != null) {
-            silverContents.add(silverContent);
-          }
-        }
+  /**
+   * Checks the visibility of the hits and converts them when the results are read, from the
+   * threads reading the hits.
+   */
+  private class HitReader implements SearchResults.Reader {
+
+    HitReader() {
+      // created before the parallel reading
+      getPublicationTagUtil();
+    }
+
+    @Override
+    public GlobalSilverContent read(GlobalSilverContent silverContent) throws Exception {
+      if (isSilverContentVisible(silverContent)) {
+        return getTranslatedGlobalSilveContent(silverContent, null);
       }
-      SilverTrace.info("searchEngine", "SearchEngineTagUtil.getResults()",
-          "root.MSG_GEN_PARAM_VALUE", "results transformed !");
+      return null;
+    }
+
+    @Override
+    public GlobalSilverContent read(MatchingIndexEntry mie) throws Exception {
+      if (isTraceable()) {
+        SilverTrace.info("searchEngine", "SearchEngineTagUtil.getResults()",
+            "root.MSG_GEN_PARAM_VALUE", "mie.getTitle() = " + mie.getTitle() +
+            ", mie.getObjectType() = " + mie.getObjectType());
+      }
+      return matchingIndexEntry2SilverContent(mie);
     }
+  }
 
-    return silverContents;
+  private String getSiteLanguage() {
+    return SiteTagUtil.getLanguage();
   }
 
-  private String getUserId() {
-    if (userId == null) {
-      return SiteTagUtil.getUserId();
-    } else {
-      return userId;
+  private void buildSpaceComponentAvailableForUser(QueryDescription queryDescription,
+      String spaceId, String componentId) throws Exception {
+    for (SpaceComponentPair pair : getSpaceComponentScope(spaceId, componentId)) {
+      queryDescription.addSpaceComponentPair(pair.getSpace(), pair.getComponent());
     }
   }
 
-  public void setUserId(String userId) {
-    this.userId = userId;
+  /**
+   * Gets the spaces and components in which the user can search. The scope is computed with one
+   * call to the admin EJB per space and sub space, so it is cached for the user, the requested
+   * space and component and the enabled kinds of components.
+   *
+   * @return an unmodifiable set of pairs of space and component ids
+   */
+  private Set<SpaceComponentPair> getSpaceComponentScope(final String spaceId,
+      final String componentId) throws Exception {
+    final SearchRequest request = getRequest();
+    String key = request.getUserId() + "|" + spaceId + "|" + componentId + "|" +
+        request.isPublicationEnabled() + "|" + request.isForumEnabled();
+    return scopes.get(key, new CacheLoader<String, Set<SpaceComponentPair>>() {
+      @Override
+      public Set<SpaceComponentPair> load(String key) throws Exception {
+        Set<SpaceComponentPair> scope = new LinkedHashSet<SpaceComponentPair>();
+        buildSpaceComponentAvailableForUser(request, scope, spaceId, componentId);
+        return Collections.unmodifiableSet(scope);
+      }
+    });
   }
 
-  private String getSiteLanguage() {
-    return SiteTagUtil.getLanguage();
+  /**
+   * Forgets the search scopes of a user, after a change of his rights.
+   *
+   * @param userId the id of the user
+   */
+  public static void invalidateScopes(String userId) {
+    String prefix = userId + "|";
+    for (String key : scopes.keys()) {
+      if (key.startsWith(prefix)) {
+        scopes.invalidate(key);
+      }
+    }
   }
 
-  private void buildSpaceComponentAvailableForUser(QueryDescription queryDescription,
-      String spaceId,
-      String componentId) throws Exception {
-    SilverTrace.info("searchEngine", "SearchEngineTagUtil.buildSpaceComponentAvailableForUser()",
-        "root.MSG_GEN_PARAM_VALUE", "spaceId = " + spaceId + ", componentId = " + componentId);
+  /**
+   * Forgets the search scopes of all users, after a change in the spaces or their components.
+   */
+  public static void invalidateAllScopes() {
+    scopes.invalidateAll();
+  }
+
+  private void buildSpaceComponentAvailableForUser(SearchRequest request,
+      Set<SpaceComponentPair> scope, String spaceId, String componentId) throws Exception {
+    if (isTraceable()) {
+      SilverTrace.info("searchEngine",
+          "SearchEngineTagUtil.buildSpaceComponentAvailableForUser()", "root.MSG_GEN_PARAM_VALUE",
+          "spaceId = " + spaceId + ", componentId = " + componentId);
+    }
     if (spaceId == null || spaceId.length() == 0) {
       spaceId = ALL_SPACES;
     }
@@ -332,10 +494,10 @@ public class SearchEngineTagUtil implements java.io.Serializable {
 
     if (spaceId.equals(ALL_SPACES)) {
       // No restriction on spaces.
-      List allowedSpaceIds = getAdminBm().getAvailableSpaceIds(getUserId());
+      List allowedSpaceIds = getAdminBm().getAvailableSpaceIds(request.getUserId());
 
       for (int i = 0; i < allowedSpaceIds.size(); i++) {
-        buildSpaceComponentAvailableForUser(queryDescription, (String) allowedSpaceIds.get(i),
+        buildSpaceComponentAvailableForUser(request, scope, (String) allowedSpaceIds.get(i),
             ALL_COMPONENTS);
       }
     } else {
@@ -343,68 +505,75 @@ public class SearchEngineTagUtil implements java.io.Serializable {
       if (componentId.equals(ALL_COMPONENTS)) {
         // No restriction on components of the selected space
         // First, we get all available components on this space
-        List allowedComponentIds = getAdminBm().getAvailCompoIds(spaceId, getUserId());
+        List allowedComponentIds = getAdminBm().getAvailCompoIds(spaceId, request.getUserId());
         for (int i = 0; i < allowedComponentIds.size(); i++) {
-          buildSpaceComponentAvailableForUser(queryDescription, spaceId,
+          buildSpaceComponentAvailableForUser(request, scope, spaceId,
               (String) allowedComponentIds.get(i));
         }
 
         // Second, we recurse on each sub space of this space
-        List subSpaceIds = getAdminBm().getAvailableSubSpaceIds(spaceId, getUserId());
+        List subSpaceIds = getAdminBm().getAvailableSubSpaceIds(spaceId,
+            request.getUserId());
         if (subSpaceIds != null) {
           for (int i = 0; i < subSpaceIds.size(); i++) {
-            buildSpaceComponentAvailableForUser(queryDescription, (String) subSpaceIds.get(i),
+            buildSpaceComponentAvailableForUser(request, scope, (String) subSpaceIds.get(i),
                 ALL_COMPONENTS);
           }
         }
       } else {
-        if ((publicationEnabled && componentId.startsWith(COMPONENT_PUBLICATION_PREFIX))
-            || (forumEnabled && componentId.startsWith(COMPONENT_FORUM_PREFIX))) {
-          queryDescription.addSpaceComponentPair(spaceId, componentId);
+        if ((request.isPublicationEnabled() &&
+            componentId.startsWith(COMPONENT_PUBLICATION_PREFIX))
+            || (request.isForumEnabled() && componentId.startsWith(COMPONENT_FORUM_PREFIX))) {
+          scope.add(new SpaceComponentPair(spaceId, componentId));
         }
       }
     }
   }
 
-  private List<MatchingIndexEntry> mixedSearch(List<MatchingIndexEntry> ie, List<String> objectIds)
-      throws Exception {
+  static List<MatchingIndexEntry> mixedSearch(List<MatchingIndexEntry> ie, List<String> objectIds) {
     SilverTrace.info("searchEngine", "SearchEngineTagUtil.mixedSearch()",
-        "root.MSG_GEN_PARAM_VALUE", "objectIds = " + objectIds.toString());
+        "root.MSG_GEN_PARAM_VALUE", "objectIds.size() = " + objectIds.size() + ", ie.size() = " +
+        ie.size());
     // la liste basicSearchList ne contient maintenant que les silverContentIds des documents
     // trouvés
     // mais ces documents sont également dans le tableau résultat de la recherche classique
-    // il faut donc créer un tableau de MatchingIndexEntry pour afficher le resultat
-    List<MatchingIndexEntry> result = new ArrayList<MatchingIndexEntry>(ie.size());
+    // il faut donc créer un tableau de MatchingIndexEntry pour afficher le resultat.
+    // Le tableau n'est pas trié : seuls les meilleurs scores sont classés, à la lecture.
+    Map<String, MatchingIndexEntry> entriesByObjectId = indexByObjectId(ie);
+    List<MatchingIndexEntry> result = new ArrayList<MatchingIndexEntry>(
+        Math.min(ie.size(), objectIds.size()));
     for (String objectId : objectIds) {
-      MatchingIndexEntry mie = getMatchingIndexEntry(ie, objectId);
+      MatchingIndexEntry mie = entriesByObjectId.get(objectId);
       if (mie != null) {
         result.add(mie);
-        SilverTrace.info("searchEngine", "SearchEngineTagUtil.mixedSearch()",
-            "root.MSG_GEN_PARAM_VALUE", "common objectId = " + mie.getObjectId());
       }
     }
-    Collections.sort(result, ScoreComparator.comparator);
+    SilverTrace.info("searchEngine", "SearchEngineTagUtil.mixedSearch()",
+        "root.MSG_GEN_PARAM_VALUE", "common objects = " + result.size());
     return result;
   }
 
   /**
-   * Dans un tableau de MatchingIndexEntry, on recherche l'objet MatchingIndexEntry qui a comme
-   * objectId l'internalContentId
+   * Indexe un tableau de MatchingIndexEntry par objectId. Seule la première entrée d'un objectId
+   * est retenue, comme lors d'un parcours du tableau.
    */
-  private MatchingIndexEntry getMatchingIndexEntry(List<MatchingIndexEntry> ie,
-      String internalContentId) throws Exception {
+  private static Map<String, MatchingIndexEntry> indexByObjectId(List<MatchingIndexEntry> ie) {
+    Map<String, MatchingIndexEntry> entriesByObjectId =
+        new HashMap<String, MatchingIndexEntry>(ie.size() * 4 / 3 + 1);
     for (MatchingIndexEntry entry : ie) {
-      if (entry.getObjectId().equals(internalContentId)) {
-        return entry;
+      if (!entriesByObjectId.containsKey(entry.getObjectId())) {
+        entriesByObjectId.put(entry.getObjectId(), entry);
       }
     }
-    return null;
+    return entriesByObjectId;
   }
 
   private GlobalSilverContent matchingIndexEntry2SilverContent(MatchingIndexEntry mie) throws
       Exception {
-    SilverTrace.info("searchEngine", "SearchEngineTagUtil.matchingIndexEntry2SilverContent()",
-        "root.MSG_GEN_PARAM_VALUE", "mie = " + mie.toString());
+    if (isTraceable()) {
+      SilverTrace.info("searchEngine", "SearchEngineTagUtil.matchingIndexEntry2SilverContent()",
+          "root.MSG_GEN_PARAM_VALUE", "mie = " + mie);
+    }
     GlobalSilverContent silverContent = null;
     if (mie != null && isMatchingIndexEntryVisible(mie)) {
       silverContent = new GlobalSilverContent(mie.getTitle(getSiteLanguage()), mie
@@ -449,44 +618,6 @@ public class SearchEngineTagUtil implements java.io.Serializable {
     }
   }
 
-  private String getQuery() {
-    return query;
-  }
-
-  private String getSpaceId() {
-    if (spaceId == null) {
-      spaceId = "*";
-    }
-    return spaceId;
-  }
-
-  private String getComponentId() {
-    if (componentId == null) {
-      componentId = "*";
-    }
-    return componentId;
-  }
-
-  private String getAuthorId() {
-    if (authorId != null && !authorId.equals(ALL_AUTHORS)) {
-      return authorId;
-    } else {
-      return null;
-    }
-  }
-
-  private String getAfterDate() throws Exception {
-    return date2SQLDate(afterDate);
-  }
-
-  private String getBeforeDate() throws Exception {
-    return date2SQLDate(beforeDate);
-  }
-
-  private SearchContext getPdcContext() {
-    return pdcContext;
-  }
-
   /**
    * Get translated Publication in current site lang or lang as parameter
    * @param gsc
@@ -511,20 +642,12 @@ public class SearchEngineTagUtil implements java.io.Serializable {
     return gsc;
   }
 
-  private String date2SQLDate(String date) throws Exception {
-    SilverTrace.info("searchEngine", "SearchEngineTagUtil.date2SQLDate()",
-        "root.MSG_GEN_PARAM_VALUE", "date = " + date);
-    if (date != null && !date.isEmpty()) {
-      Date parsedDate = DateUtil.parse(date, "dd/MM/yyyy");
-      SilverTrace.info("searchEngine", "SearchEngineTagUtil.date2SQLDate()",
-          "root.MSG_GEN_PARAM_VALUE", "parsedDate = " + parsedDate.toString());
-      String sqlDate = DateUtil.date2SQLDate(parsedDate);
-      SilverTrace.info("searchEngine", "SearchEngineTagUtil.date2SQLDate()",
-          "root.MSG_GEN_PARAM_VALUE", "sqlDate = " + sqlDate);
-      return sqlDate;
-    } else {
-      return null;
-    }
+  /**
+   * @return true if the info traces of the search engine are enabled: the messages built for each
+   * hit are then worth building.
+   */
+  static boolean isTraceable() {
+    return SilverTrace.getTraceLevel("searchEngine", true) <= SilverTrace.TRACE_LEVEL_INFO;
   }
 
   private PdcBm getPdcBm() {
@@ -557,8 +680,4 @@ public class SearchEngineTagUtil implements java.io.Serializable {
     }
     return publicationTagUtil;
   }
-
-  public void setXmlTitle(String xmlTitle) {
-    this.xmlTitle = xmlTitle;
-  }
 }
\ No newline at end of file
@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.searchEngine;
+
+import java.io.Serializable;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.silverpeas.tags.util.SiteTagUtil;
+import com.silverpeas.util.StringUtil;
+import com.stratelia.silverpeas.pdc.model.SearchContext;
+import com.stratelia.silverpeas.pdc.model.SearchCriteria;
+import com.stratelia.webactiv.util.DateUtil;
+
+/**
+ * The description of a search processed by {@link SearchEngineTagUtil}, built once with a
+ * {@link Builder}: the dates are parsed, the xml query is rewritten for the index and the
+ * description is normalized into a key identifying the search, so that two requests with the same
+ * key have the same results.
+ * <p/>
+ * Instances are immutable, apart from the PDC context which is used as given.
+ */
+public final class SearchRequest implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+  private static final String ALL = "*";
+
+  private final String query;
+  private final String spaceId;
+  private final String componentId;
+  private final String authorId;
+  private final String afterDate;
+  private final String beforeDate;
+  private final SearchContext pdcContext;
+  private final String userId;
+  private final Map<String, String> xmlQuery;
+  private final String xmlTitle;
+  private final boolean publicationEnabled;
+  private final boolean forumEnabled;
+  private final String key;
+
+  private SearchRequest(Builder builder) throws ParseException {
+    this.query = builder.query;
+    this.spaceId = StringUtil.isDefined(builder.spaceId) ? builder.spaceId : ALL;
+    this.componentId = StringUtil.isDefined(builder.componentId) ? builder.componentId : ALL;
+    this.authorId = builder.authorId != null && !ALL.equals(builder.authorId) ?
+        builder.authorId : null;
+    this.afterDate = date2SQLDate(builder.afterDate);
+    this.beforeDate = date2SQLDate(builder.beforeDate);
+    this.pdcContext = builder.pdcContext;
+    this.userId = builder.userId != null ? builder.userId : SiteTagUtil.getUserId();
+    this.xmlQuery = buildXmlQuery(builder.xmlQuery, builder.xmlTemplate);
+    this.xmlTitle = StringUtil.isDefined(builder.xmlTitle) ? builder.xmlTitle : null;
+    this.publicationEnabled = builder.publicationEnabled;
+    this.forumEnabled = builder.forumEnabled;
+    this.key = buildKey();
+  }
+
+  public String getQuery() {
+    return query;
+  }
+
+  /**
+   * @return the id of the space to search in, "*" for all the spaces.
+   */
+  public String getSpaceId() {
+    return spaceId;
+  }
+
+  /**
+   * @return the id of the component to search in, "*" for all the components.
+   */
+  public String getComponentId() {
+    return componentId;
+  }
+
+  /**
+   * @return the id of the author of the searched contents, null for any author.
+   */
+  public String getAuthorId() {
+    return authorId;
+  }
+
+  /**
+   * @return the SQL date after which the searched contents are created, null if not set.
+   */
+  public String getAfterDate() {
+    return afterDate;
+  }
+
+  /**
+   * @return the SQL date before which the searched contents are created, null if not set.
+   */
+  public String getBeforeDate() {
+    return beforeDate;
+  }
+
+  public SearchContext getPdcContext() {
+    return pdcContext;
+  }
+
+  public boolean hasPdcContext() {
+    return pdcContext != null && !pdcContext.isEmpty();
+  }
+
+  public String getUserId() {
+    return userId;
+  }
+
+  /**
+   * @return the xml query as sent to the index (fields prefixed by the template, "##" replaced by
+   * " AND "), null if there isn't any.
+   */
+  public Map<String, String> getXmlQuery() {
+    return xmlQuery;
+  }
+
+  public String getXmlTitle() {
+    return xmlTitle;
+  }
+
+  public boolean isPublicationEnabled() {
+    return publicationEnabled;
+  }
+
+  public boolean isForumEnabled() {
+    return forumEnabled;
+  }
+
+  /**
+   * @return the normalized description of the search, including the site mode and language.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof SearchRequest && key.equals(((SearchRequest) obj).key);
+  }
+
+  @Override
+  public int hashCode() {
+    return key.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return key;
+  }
+
+  private static String date2SQLDate(String date) throws ParseException {
+    if (date != null && !date.isEmpty()) {
+      return DateUtil.date2SQLDate(DateUtil.parse(date, "dd/MM/yyyy"));
+    }
+    return null;
+  }
+
+  private static Map<String, String> buildXmlQuery(Map<String, String> xmlQuery,
+      String xmlTemplate) {
+    if (xmlQuery == null || xmlQuery.isEmpty() || xmlTemplate == null) {
+      return null;
+    }
+    Map<String, String> newXmlQuery = new HashMap<String, String>(xmlQuery.size() * 4 / 3 + 1);
+    for (Map.Entry<String, String> field : xmlQuery.entrySet()) {
+      newXmlQuery.put(xmlTemplate + "$$" + field.getKey(),
+          field.getValue().trim().replace("##", " AND "));
+    }
+    return Collections.unmodifiableMap(newXmlQuery);
+  }
+
+  private String buildKey() {
+    StringBuilder builder = new StringBuilder(128);
+    builder.append(userId).append('|').append(SiteTagUtil.getMode()).append('|')
+        .append(SiteTagUtil.getLanguage()).append('|').append(normalize(query)).append('|')
+        .append(spaceId).append('|').append(componentId).append('|').append(authorId)
+        .append('|').append(afterDate).append('|').append(beforeDate).append('|')
+        .append(publicationEnabled).append('|').append(forumEnabled).append('|')
+        .append(xmlTitle);
+    if (xmlQuery != null) {
+      builder.append('|').append(new TreeMap<String, String>(xmlQuery));
+    }
+    if (pdcContext != null) {
+      for (SearchCriteria criteria : pdcContext.getCriterias()) {
+        builder.append('|').append(criteria.getAxisId()).append('=').append(criteria.getValue());
+      }
+    }
+    return builder.toString();
+  }
+
+  private static String normalize(String value) {
+    if (value == null) {
+      return "";
+    }
+    return value.trim().replaceAll("\\s+", " ");
+  }
+
+  /**
+   * Builder of {@link SearchRequest}. All the settings are optional.
+   */
+  public static class Builder implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String query;
+    private String spaceId;
+    private String componentId;
+    private String authorId;
+    private String afterDate;
+    private String beforeDate;
+    private SearchContext pdcContext;
+    private String userId;
+    private Map<String, String> xmlQuery;
+    private String xmlTemplate;
+    private String xmlTitle;
+    private boolean publicationEnabled = true;
+    private boolean forumEnabled = false;
+
+    public Builder query(String query) {
+      this.query = query;
+      return this;
+    }
+
+    public Builder spaceId(String spaceId) {
+      this.spaceId = spaceId;
+      return this;
+    }
+
+    public Builder componentId(String componentId) {
+      this.componentId = componentId;
+      return this;
+    }
+
+    /**
+     * @param authorId the id of the author, "*" or null for any author.
+     */
+    public Builder authorId(String authorId) {
+      this.authorId = authorId;
+      return this;
+    }
+
+    /**
+     * @param afterDate a date formatted as dd/MM/yyyy.
+     */
+    public Builder afterDate(String afterDate) {
+      this.afterDate = afterDate;
+      return this;
+    }
+
+    /**
+     * @param beforeDate a date formatted as dd/MM/yyyy.
+     */
+    public Builder beforeDate(String beforeDate) {
+      this.beforeDate = beforeDate;
+      return this;
+    }
+
+    public Builder pdcContext(SearchContext pdcContext) {
+      this.pdcContext = pdcContext;
+      return this;
+    }
+
+    /**
+     * @param userId the id of the searching user, the user of the site if null.
+     */
+    public Builder userId(String userId) {
+      this.userId = userId;
+      return this;
+    }
+
+    /**
+     * @param xmlQuery the values searched in the fields of the xml template, several values being
+     * separated by "##".
+     */
+    public Builder xmlQuery(Map<String, String> xmlQuery) {
+      this.xmlQuery = xmlQuery;
+      return this;
+    }
+
+    public Builder xmlTemplate(String xmlTemplate) {
+      this.xmlTemplate = xmlTemplate;
+      return this;
+    }
+
+    public Builder xmlTitle(String xmlTitle) {
+      this.xmlTitle = xmlTitle;
+      return this;
+    }
+
+    public Builder publicationEnabled(boolean publicationEnabled) {
+      this.publicationEnabled = publicationEnabled;
+      return this;
+    }
+
+    public Builder forumEnabled(boolean forumEnabled) {
+      this.forumEnabled = forumEnabled;
+      return this;
+    }
+
+    /**
+     * @return the request.
+     * @throws ParseException if a date isn't formatted as dd/MM/yyyy.
+     */
+    public SearchRequest build() throws ParseException {
+      return new SearchRequest(this);
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.searchEngine;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.silverpeas.tags.cache.CacheLoader;
+import com.silverpeas.tags.cache.ExpiringCache;
+import com.stratelia.silverpeas.silvertrace.SilverTrace;
+
+/**
+ * Cache of the results of the searches processed by {@link SearchEngineTagUtil}, keyed by the
+ * normalized description of the search (query, scope, dates, xml query, PDC context, user,
+ * language and site mode). Public sites get the same searches again and again from the same guest
+ * user: they are then served without querying the index.
+ * <p/>
+ * A search is kept five minutes at most, or until {@link #clear()} is called on a change of the
+ * indexed contents. The cache holds a bounded number of searches, and the searches with too many
+ * hits are not kept so that the memory used stays bounded. It is exposed in JMX under the name
+ * {@value #MBEAN_NAME}.
+ * <p/>
+ * The results of a cached search are shared by its readers: each of them gets its own copy of
+ * the silver contents read (see {@link SearchResults#share()}).
+ */
+public class SearchResultCache implements SearchResultCacheMBean {
+
+  public static final String MBEAN_NAME = "com.silverpeas.tags:type=SearchResultCache";
+
+  private static final int MAX_SEARCHES = 200;
+  private static final int MAX_HITS = 1000;
+  private static final long TIME_TO_LIVE = 5 * 60 * 1000L;
+
+  private static volatile SearchResultCache instance;
+
+  private final ExpiringCache<String, SearchResults> cache =
+      new ExpiringCache<String, SearchResults>("searchResults", MAX_SEARCHES, TIME_TO_LIVE);
+  private volatile boolean enabled = true;
+
+  private SearchResultCache() {
+    super();
+  }
+
+  /**
+   * Drops the cache when the application stops: it is removed from JMX so that neither it nor its
+   * class loader are referenced after a redeployment.
+   */
+  public static void shutdown() {
+    synchronized (SearchResultCache.class) {
+      if (instance != null) {
+        instance.clear();
+        instance.unregister();
+        instance = null;
+      }
+    }
+  }
+
+  public static SearchResultCache getInstance() {
+    if (instance == null) {
+      synchronized (SearchResultCache.class) {
+        if (instance == null) {
+          instance = new SearchResultCache();
+          instance.register();
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Gets the results of a search, processing it with the given loader if it isn't in the cache.
+   * @param key the normalized description of the search.
+   * @param loader the loader processing the search.
+   * @return the results of the search, shared with the other readers of the search.
+   * @throws Exception the exception thrown by the loader.
+   */
+  SearchResults get(String key, final CacheLoader<String, SearchResults> loader)
+      throws Exception {
+    SearchResults results = cache.get(key, new CacheLoader<String, SearchResults>() {
+      @Override
+      public SearchResults load(String searchKey) throws Exception {
+        SearchResults loaded = loader.load(searchKey);
+        loaded.share();
+        return loaded;
+      }
+    });
+    if (results.getHitCount() > MAX_HITS) {
+      // too large to be kept: only the concurrent requests share it
+      cache.invalidate(key);
+    }
+    return results;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    cache.configure(enabled, MAX_SEARCHES, TIME_TO_LIVE, 0);
+  }
+
+  @Override
+  public int getSize() {
+    return cache.size();
+  }
+
+  @Override
+  public long getHitCount() {
+    return cache.getHitCount();
+  }
+
+  @Override
+  public long getMissCount() {
+    return cache.getMissCount();
+  }
+
+  @Override
+  public double getHitRate() {
+    return cache.getHitRate();
+  }
+
+  /**
+   * Forgets all the results, after a change of the indexed contents.
+   */
+  @Override
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  private void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      // the instance of a previous deployment is replaced
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+    } catch (Exception e) {
+      SilverTrace.warn("searchEngine", "SearchResultCache.register()", "root.MSG_GEN_PARAM_VALUE",
+          "JMX registration failed", e);
+    }
+  }
+
+  private void unregister() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    } catch (Exception e) {
+      SilverTrace.warn("searchEngine", "SearchResultCache.unregister()",
+          "root.MSG_GEN_PARAM_VALUE", "JMX unregistration failed", e);
+    }
+  }
+}
@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.searchEngine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.silverpeas.search.searchEngine.model.MatchingIndexEntry;
+
+import com.silverpeas.tags.cache.SerializedCopy;
+import com.stratelia.silverpeas.contentManager.GlobalSilverContent;
+
+/**
+ * The hits of a search and the visible results already read from them.
+ * <p/>
+ * The hits are either silver contents (search on the PDC only) or index entries (full text
+ * search), without the duplicates. The index entries of a mixed search are ranked by score only as
+ * far as they are read (see {@link ScoreRanking}). The hits are checked for visibility and
+ * converted only when a page of results needs them, and the results are kept so that the next
+ * pages, or the next readers of a cached search, start where the previous ones stopped.
+ * <p/>
+ * The hits are read ahead on a bounded pool of threads, whose size is set by the system
+ * property {@value #THREADS_PROPERTY} (the number of processors by default); the results keep
+ * the order of the hits. The readers of the same results share the readings in progress, and
+ * none of them holds the lock of the results while waiting for a hit: each one waits for the next
+ * hit only until its own deadline. When the pool is saturated, the readings are submitted again
+ * later instead of being run by the calling thread, so the deadline still applies. This class is
+ * thread-safe.
+ * <p/>
+ * The results of shared hits (see {@link #share()}) are copied for each reader: the tags and the
+ * pages modify the silver contents they get, which must not be seen by the other readers.
+ */
+class SearchResults {
+
+  /**
+   * Checks the visibility of a hit and converts it into a result. The methods are called from
+   * several threads at the same time.
+   */
+  interface Reader {
+
+    /**
+     * @return the result to display, null if the content is not visible
+     */
+    GlobalSilverContent read(GlobalSilverContent silverContent) throws Exception;
+
+    /**
+     * @return the result to display, null if the entry is not visible
+     */
+    GlobalSilverContent read(MatchingIndexEntry mie) throws Exception;
+  }
+
+  static final String THREADS_PROPERTY = "silverpeas.tags.search.threads";
+
+  private static final int THREADS = Math.max(1, Integer.getInteger(THREADS_PROPERTY,
+      Runtime.getRuntime().availableProcessors()));
+  private static final ThreadPoolExecutor hitReaders = new ThreadPoolExecutor(THREADS, THREADS,
+      60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(THREADS * 64), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "SearchResults-reader");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+  // delay before submitting again a reading rejected by the saturated pool
+  private static final long RETRY_DELAY = 10;
+
+  static {
+    hitReaders.allowCoreThreadTimeOut(true);
+  }
+
+  private final List<GlobalSilverContent> contents;
+  private final List<MatchingIndexEntry> entries;
+  private final List<GlobalSilverContent> results = new ArrayList<GlobalSilverContent>();
+  // the readings submitted from the index of the next hit to keep
+  private final Map<Integer, Future<GlobalSilverContent>> readings =
+      new HashMap<Integer, Future<GlobalSilverContent>>();
+  private int index = 0;
+  private volatile boolean shared = false;
+
+  private SearchResults(List<GlobalSilverContent> contents, List<MatchingIndexEntry> entries) {
+    this.contents = contents;
+    this.entries = entries;
+  }
+
+  static SearchResults ofSilverContents(List<GlobalSilverContent> silverContents) {
+    DuplicateResultFilter duplicates = new DuplicateResultFilter(silverContents.size());
+    List<GlobalSilverContent> hits = new ArrayList<GlobalSilverContent>(silverContents.size());
+    for (GlobalSilverContent silverContent : silverContents) {
+      if (duplicates.accept(silverContent.getId(), silverContent.getType(),
+          silverContent.getInstanceId())) {
+        hits.add(silverContent);
+      }
+    }
+    return new SearchResults(hits, null);
+  }
+
+  static SearchResults ofIndexEntries(List<MatchingIndexEntry> indexEntries) {
+    return new SearchResults(null, filterIndexEntries(indexEntries,
+        new DuplicateResultFilter(indexEntries.size())));
+  }
+
+  /**
+   * Gets the results of index entries not sorted by score: they are ranked by decreasing score
+   * only as far as the results are read.
+   * @param indexEntries the entries in any order.
+   * @param topK the number of best entries to rank at the first read, 0 to rank only the entries
+   * read.
+   */
+  static SearchResults ofScoredEntries(List<MatchingIndexEntry> indexEntries, int topK) {
+    // the duplicates are removed as if the entries were sorted: the type kept for an object is the
+    // one of its best entry, the first of the object in the ranking
+    DuplicateResultFilter duplicates = new DuplicateResultFilter(indexEntries.size());
+    Map<String, MatchingIndexEntry> bestEntries = new HashMap<String, MatchingIndexEntry>();
+    for (MatchingIndexEntry mie : indexEntries) {
+      if (!mie.getTitle().endsWith("wysiwyg.txt") &&
+          (DuplicateResultFilter.PUBLICATION.equals(mie.getObjectType()) ||
+          DuplicateResultFilter.WYSIWYG.equals(mie.getObjectType()))) {
+        String key = mie.getComponent() + "|" + mie.getObjectId();
+        MatchingIndexEntry best = bestEntries.get(key);
+        if (best == null || mie.getScore() > best.getScore()) {
+          bestEntries.put(key, mie);
+        }
+      }
+    }
+    for (MatchingIndexEntry best : bestEntries.values()) {
+      duplicates.accept(best.getObjectId(), best.getObjectType(), best.getComponent());
+    }
+    return new SearchResults(null, new ScoreRanking(filterIndexEntries(indexEntries, duplicates),
+        topK));
+  }
+
+  private static List<MatchingIndexEntry> filterIndexEntries(List<MatchingIndexEntry> indexEntries,
+      DuplicateResultFilter duplicates) {
+    List<MatchingIndexEntry> hits = new ArrayList<MatchingIndexEntry>(indexEntries.size());
+    for (MatchingIndexEntry mie : indexEntries) {
+      if (mie.getTitle().endsWith("wysiwyg.txt")) {
+        // we don't show it as result.
+        continue;
+      }
+      // Added by NEY - 22/01/2004
+      // If a publication have got the word "truck" in its title and an associated wysiwyg which
+      // content the same word, the search engine will return 2 same lines (One for the
+      // publication and the other for the wysiwyg). Only one of them is kept, the choice between
+      // both lines is not important.
+      if (duplicates.accept(mie.getObjectId(), mie.getObjectType(), mie.getComponent())) {
+        hits.add(mie);
+      }
+    }
+    return hits;
+  }
+
+  /**
+   * Marks the hits as shared by several readers, as the ones of a cached search: each reader gets
+   * then its own copy of the results.
+   */
+  void share() {
+    shared = true;
+  }
+
+  /**
+   * @return the number of hits once the duplicates are removed, before any visibility check.
+   */
+  int getHitCount() {
+    return contents != null ? contents.size() : entries.size();
+  }
+
+  /**
+   * Gets a page of the results, reading the hits until the page is full.
+   * @param offset the number of visible results to skip.
+   * @param limit the maximum number of results to return, negative for all of them.
+   * @param reader the reader of the hits not yet read.
+   * @param deadline the time (in milliseconds) after which no more hit is waited for, 0 for no
+   * deadline.
+   * @param failOnTimeout true to fail when the deadline is reached, false to return the results
+   * read so far.
+   * @return the visible results of the page.
+   * @throws TimeoutException if the deadline is reached and failOnTimeout is true.
+   */
+  List<GlobalSilverContent> getResults(int offset, int limit, Reader reader, long deadline,
+      boolean failOnTimeout) throws Exception {
+    ArrayList<GlobalSilverContent> page = readResults(offset, limit, reader, deadline,
+        failOnTimeout);
+    // copied without holding the lock of the results
+    return shared ? SerializedCopy.of(page) : page;
+  }
+
+  private ArrayList<GlobalSilverContent> readResults(int offset, int limit, Reader reader,
+      long deadline, boolean failOnTimeout) throws Exception {
+    long end = limit < 0 ? Long.MAX_VALUE : (long) offset + limit;
+    while (true) {
+      int hitIndex;
+      Future<GlobalSilverContent> reading;
+      synchronized (this) {
+        if (results.size() >= end || index >= getHitCount()) {
+          return getPage(offset, end);
+        }
+        hitIndex = index;
+        reading = submitReadings(reader, end);
+      }
+      GlobalSilverContent result = null;
+      boolean read;
+      try {
+        if (reading == null) {
+          // the pool is saturated
+          read = false;
+        } else if (deadline > 0) {
+          result = reading.get(Math.max(0, deadline - System.currentTimeMillis()),
+              TimeUnit.MILLISECONDS);
+          read = true;
+        } else {
+          result = reading.get();
+          read = true;
+        }
+      } catch (TimeoutException e) {
+        read = false;
+      } catch (ExecutionException e) {
+        synchronized (this) {
+          // the hit will be read again by the next call
+          if (readings.get(hitIndex) == reading) {
+            readings.remove(hitIndex);
+          }
+        }
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+          throw (Exception) cause;
+        }
+        throw e;
+      }
+      if (!read && (reading != null || !pause(deadline))) {
+        synchronized (this) {
+          if (failOnTimeout) {
+            throw new TimeoutException("Search results not read in time: " + results.size() +
+                " results read from " + index + " hits");
+          }
+          // the readings in progress are kept for the next calls
+          return getPage(offset, end);
+        }
+      }
+      if (read) {
+        synchronized (this) {
+          // the hit may have been kept by another reader meanwhile
+          if (index == hitIndex && readings.get(hitIndex) == reading) {
+            keep(result);
+            keepReadHits();
+          }
+        }
+      }
+    }
+  }
+
+  private ArrayList<GlobalSilverContent> getPage(int offset, long end) {
+    int from = Math.min(offset, results.size());
+    int to = (int) Math.min(end, results.size());
+    return new ArrayList<GlobalSilverContent>(results.subList(from, to));
+  }
+
+  /**
+   * Submits the readings of the next hits not yet submitted, as far as the pool accepts them.
+   * @return the reading of the next hit to keep, null if it can't be submitted for now.
+   */
+  private Future<GlobalSilverContent> submitReadings(Reader reader, long end) {
+    long needed = Math.max(end - results.size(), 2 * THREADS);
+    int last = (int) Math.min(getHitCount(), index + Math.min(needed, 16 * THREADS));
+    for (int i = index; i < last; i++) {
+      if (!readings.containsKey(i)) {
+        try {
+          readings.put(i, hitReaders.submit(newReading(reader, i)));
+        } catch (RejectedExecutionException e) {
+          // the queue is full: the next hits will be submitted later
+          break;
+        }
+      }
+    }
+    return readings.get(index);
+  }
+
+  private void keep(GlobalSilverContent result) {
+    readings.remove(index);
+    if (result != null) {
+      results.add(result);
+    }
+    index++;
+  }
+
+  /**
+   * Keeps the results of the next hits already read, in order.
+   */
+  private void keepReadHits() throws InterruptedException {
+    Future<GlobalSilverContent> reading = readings.get(index);
+    while (reading != null && reading.isDone()) {
+      try {
+        keep(reading.get());
+      } catch (ExecutionException e) {
+        // the failure is reported to the reader waiting for this hit
+        return;
+      }
+      reading = readings.get(index);
+    }
+  }
+
+  /**
+   * Waits before submitting again the readings rejected by the pool.
+   * @return false if the deadline is reached.
+   */
+  private static boolean pause(long deadline) throws InterruptedException {
+    long delay = RETRY_DELAY;
+    if (deadline > 0) {
+      delay = Math.min(delay, deadline - System.currentTimeMillis());
+      if (delay <= 0) {
+        return false;
+      }
+    }
+    Thread.sleep(delay);
+    return true;
+  }
+
+  private Callable<GlobalSilverContent> newReading(final Reader reader, int hitIndex) {
+    // the hit is taken by the calling thread: the entries may be ranked on demand
+    if (contents != null) {
+      final GlobalSilverContent silverContent = contents.get(hitIndex);
+      return new Callable<GlobalSilverContent>() {
+        @Override
+        public GlobalSilverContent call() throws Exception {
+          return reader.read(silverContent);
+        }
+      };
+    }
+    final MatchingIndexEntry mie = entries.get(hitIndex);
+    return new Callable<GlobalSilverContent>() {
+      @Override
+      public GlobalSilverContent call() throws Exception {
+        return reader.read(mie);
+      }
+    };
+  }
+}
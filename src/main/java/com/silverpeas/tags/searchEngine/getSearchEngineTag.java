@@ -24,6 +24,7 @@
 
 package com.silverpeas.tags.searchEngine;
 
+import java.text.ParseException;
 import java.util.Hashtable;
 
 import javax.servlet.http.HttpServletRequest;
@@ -40,6 +41,8 @@ public class getSearchEngineTag extends TagSupport {
   public static final String REQUEST_ID = "request";
   public static final String SESSION_ID = "session";
   public static final String APPLICATION_ID = "application";
+  public static final String ON_TIMEOUT_DROP = "drop";
+  public static final String ON_TIMEOUT_FAIL = "fail";
 
   private String scope = REQUEST_ID;
   private String name;
@@ -55,6 +58,11 @@ public class getSearchEngineTag extends TagSupport {
   private String xmlTemplate;
   private String publicationEnabled = "true";
   private String forumEnabled = "false";
+  private String pageSize;
+  private String page;
+  private String timeout;
+  private String onTimeout = ON_TIMEOUT_DROP;
+  private String topK;
 
   public getSearchEngineTag() {
     super();
@@ -128,22 +136,48 @@ public class getSearchEngineTag extends TagSupport {
     this.scope = scope;
   }
 
+  @SuppressWarnings("unchecked")
   public int doStartTag() throws JspTagException {
     String userId = AuthenticationManager.getUserId((HttpServletRequest) pageContext.getRequest());
 
-    SearchEngineTagUtil stu = new SearchEngineTagUtil(getQuery(), getSpaceId(),
-        getComponentId(), getAuthorId(), getAfterDate(), getBeforeDate(),
-        getPublicationEnabled(), getForumEnabled());
-    stu.setUserId(userId);
-    stu.setPdcContext(getPdcContext());
-    stu.setXmlQuery(getXmlQuery());
-    stu.setXmlTemplate(getXmlTemplate());
-    stu.setXmlTitle(getXmlTitle());
+    SearchRequest request;
+    try {
+      request = new SearchRequest.Builder().query(getQuery()).spaceId(getSpaceId())
+          .componentId(getComponentId()).authorId(getAuthorId()).afterDate(getAfterDate())
+          .beforeDate(getBeforeDate()).publicationEnabled("true".equals(getPublicationEnabled()))
+          .forumEnabled("true".equals(getForumEnabled())).userId(userId)
+          .pdcContext(getPdcContext()).xmlQuery(getXmlQuery()).xmlTemplate(getXmlTemplate())
+          .xmlTitle(getXmlTitle()).build();
+    } catch (ParseException e) {
+      throw new JspTagException("Invalid date : " + e.getMessage());
+    }
+    SearchEngineTagUtil stu = new SearchEngineTagUtil(request);
+    if (getPageSize() != null) {
+      stu.setPageSize(parseNumber("pageSize", getPageSize()));
+    }
+    if (getPage() != null) {
+      stu.setPage(parseNumber("page", getPage()));
+    }
+    if (getTimeout() != null) {
+      stu.setTimeout(parseNumber("timeout", getTimeout()),
+          ON_TIMEOUT_FAIL.equalsIgnoreCase(getOnTimeout()));
+    }
+    if (getTopK() != null) {
+      stu.setTopK(parseNumber("topK", getTopK()));
+    }
 
     pageContext.setAttribute(getName(), stu, translateScope(scope));
     return EVAL_PAGE;
   }
 
+  private int parseNumber(String attribute, String value) throws JspTagException {
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new JspTagException("Invalid " + attribute + " : " + value);
+    }
+  }
+
   protected int translateScope(String scope) {
     if (scope.equalsIgnoreCase(PAGE_ID)) {
       return PageContext.PAGE_SCOPE;
@@ -197,4 +231,53 @@ public class getSearchEngineTag extends TagSupport {
     this.forumEnabled = forumEnabled;
   }
 
+  public String getPageSize() {
+    return pageSize;
+  }
+
+  public void setPageSize(String pageSize) {
+    this.pageSize = pageSize;
+  }
+
+  public String getPage() {
+    return page;
+  }
+
+  public void setPage(String page) {
+    this.page = page;
+  }
+
+  public String getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * @param timeout the time budget in milliseconds of the visibility checks of the results
+   */
+  public void setTimeout(String timeout) {
+    this.timeout = timeout;
+  }
+
+  public String getOnTimeout() {
+    return onTimeout;
+  }
+
+  /**
+   * @param onTimeout "drop" to display the results checked in time, "fail" to fail
+   */
+  public void setOnTimeout(String onTimeout) {
+    this.onTimeout = onTimeout;
+  }
+
+  public String getTopK() {
+    return topK;
+  }
+
+  /**
+   * @param topK the number of best hits of a mixed search to rank first
+   */
+  public void setTopK(String topK) {
+    this.topK = topK;
+  }
+
 }
\ No newline at end of file
@@ -0,0 +1,506 @@
+/**
+ * Copyright (C) 2000 - 2015 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of the GPL, you may
+ * redistribute this Program in connection with Free/Libre Open Source Software ("FLOSS")
+ * applications as described in Silverpeas's FLOSS exception. You should have received a copy of the
+ * text describing the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.silverpeas.tags.servlets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+
+import com.stratelia.silverpeas.silvertrace.SilverTrace;
+
+/**
+ * Sends files in asynchronous requests so that the slow downloads don't hold the request threads
+ * of the container.
+ * <p/>
+ * With a Servlet 3.1 container, the files are written without blocking: a chunk is written only
+ * when the output stream is ready, from the threads of the container (WriteListener). The API
+ * being 3.0 here, it is used by reflection.
+ * <p/>
+ * Otherwise the writes are blocking and the files are written by a bounded pool of threads, one
+ * chunk of {@value #CHUNK_SIZE} bytes at a time: once its chunk is written, a download goes back
+ * at the end of the queue. A write blocked by a client which doesn't read is considered as
+ * stalled after a delay, and the pool gets an additional thread from a separate budget for the
+ * time of this write: the stalled clients don't take the threads of the other downloads as long
+ * as this budget isn't exhausted.
+ * <p/>
+ * The asynchronous requests have no deadline, a large file being possibly downloaded for hours by
+ * a slow client: a download is abandoned only when no chunk could be written during the idle
+ * timeout.
+ * <p/>
+ * In both cases a download has never more than one chunk in memory, and the number of downloads
+ * in progress is bounded: beyond it, {@link #reserve()} fails and the request should be answered
+ * later.
+ */
+public class AsyncFileTransfer {
+
+  static final int CHUNK_SIZE = 64 * 1024;
+  static final long DEFAULT_STALL_DELAY = 2000;
+
+  private static final Method SET_WRITE_LISTENER;
+  private static final Method IS_READY;
+
+  static {
+    Method setWriteListener = null;
+    Method isReady = null;
+    try {
+      Class<?> writeListener = Class.forName("javax.servlet.WriteListener", false,
+          ServletOutputStream.class.getClassLoader());
+      setWriteListener = ServletOutputStream.class.getMethod("setWriteListener", writeListener);
+      isReady = ServletOutputStream.class.getMethod("isReady");
+    } catch (ClassNotFoundException e) {
+      // Servlet 3.0: the writes are blocking
+    } catch (NoSuchMethodException e) {
+      setWriteListener = null;
+    }
+    SET_WRITE_LISTENER = setWriteListener;
+    IS_READY = setWriteListener == null ? null : isReady;
+  }
+
+  private final ThreadPoolExecutor writers;
+  private final int threads;
+  private final Semaphore downloads;
+  private final Semaphore stalledThreads;
+  private final long idleTimeout;
+  private final long stallDelay;
+  private final ScheduledExecutorService watchdog;
+  private final Set<Transfer> transfers =
+      Collections.newSetFromMap(new ConcurrentHashMap<Transfer, Boolean>());
+  private int stalledWrites = 0;
+
+  /**
+   * @param threads the number of threads writing the files.
+   * @param maxDownloads the maximum number of downloads in progress.
+   * @param idleTimeout the time in milliseconds without any chunk written after which a download
+   * is abandoned, 0 for none.
+   */
+  public AsyncFileTransfer(int threads, int maxDownloads, long idleTimeout) {
+    this(threads, threads, maxDownloads, idleTimeout, DEFAULT_STALL_DELAY);
+  }
+
+  /**
+   * @param threads the number of threads writing the files.
+   * @param stalledThreads the number of additional threads for the writes stalled by slow clients.
+   * @param maxDownloads the maximum number of downloads in progress.
+   * @param idleTimeout the time in milliseconds without any chunk written after which a download
+   * is abandoned, 0 for none.
+   * @param stallDelay the time in milliseconds after which a blocked write is considered as
+   * stalled.
+   */
+  public AsyncFileTransfer(int threads, int stalledThreads, int maxDownloads, long idleTimeout,
+      long stallDelay) {
+    // each download has at most one chunk in the queue
+    this.writers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), newThreadFactory("AsyncFileTransfer-writer"));
+    this.writers.allowCoreThreadTimeOut(true);
+    this.threads = threads;
+    this.downloads = new Semaphore(maxDownloads);
+    this.stalledThreads = new Semaphore(stalledThreads);
+    this.idleTimeout = idleTimeout;
+    this.stallDelay = stallDelay;
+    this.watchdog = Executors.newSingleThreadScheduledExecutor(
+        newThreadFactory("AsyncFileTransfer-watchdog"));
+    long period = Math.max(1, stallDelay / 2);
+    this.watchdog.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        checkProgress();
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  private static ThreadFactory newThreadFactory(final String name) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  /**
+   * Reserves a place for a download, to call before the headers of the response are set.
+   * @return false if the maximum number of downloads in progress is reached.
+   */
+  public boolean reserve() {
+    return downloads.tryAcquire();
+  }
+
+  /**
+   * Starts the asynchronous sending of a part of a file, with a place reserved by
+   * {@link #reserve()}. The headers of the response must be set before. The reservation is
+   * released at the end of the download, or here if it can't be started.
+   * @param request the request of the file.
+   * @param response the response in which the file is sent.
+   * @param file the file to send.
+   * @param offset the position of the first byte to send.
+   * @param length the number of bytes to send.
+   * @throws IOException if the file can't be opened or the response written.
+   */
+  public void start(HttpServletRequest request, HttpServletResponse response, File file,
+      long offset, long length) throws IOException {
+    Transfer transfer;
+    ServletOutputStream out;
+    try {
+      out = response.getOutputStream();
+      transfer = new Transfer(file, offset, length, out);
+    } catch (IOException e) {
+      downloads.release();
+      throw e;
+    }
+    try {
+      AsyncContext context = request.startAsync(request, response);
+      // no deadline: the idle downloads are abandoned by the watchdog
+      context.setTimeout(0);
+      if (SET_WRITE_LISTENER != null) {
+        transfer.startNonBlocking(context, SET_WRITE_LISTENER, IS_READY);
+      } else {
+        transfer.start(context);
+      }
+    } catch (RuntimeException e) {
+      transfer.finish();
+      throw e;
+    }
+  }
+
+  /**
+   * Starts a download with blocking writes in an asynchronous request already started.
+   */
+  void start(AsyncContext context, OutputStream out, File file, long offset, long length)
+      throws IOException {
+    Transfer transfer;
+    try {
+      transfer = new Transfer(file, offset, length, out);
+    } catch (IOException e) {
+      downloads.release();
+      throw e;
+    }
+    transfer.start(context);
+  }
+
+  /**
+   * Starts a download with non-blocking writes in an asynchronous request already started, with
+   * the given methods of the WriteListener API of the output stream.
+   */
+  void startNonBlocking(AsyncContext context, OutputStream out, Method setWriteListener,
+      Method isReady, File file, long offset, long length) throws IOException {
+    Transfer transfer;
+    try {
+      transfer = new Transfer(file, offset, length, out);
+    } catch (IOException e) {
+      downloads.release();
+      throw e;
+    }
+    transfer.startNonBlocking(context, setWriteListener, isReady);
+  }
+
+  /**
+   * Stops the writers: the downloads in progress are abandoned.
+   */
+  public void shutdown() {
+    watchdog.shutdownNow();
+    writers.shutdownNow();
+  }
+
+  /**
+   * @return the number of blocking writes currently stalled by slow clients.
+   */
+  public synchronized int getStalledWriteCount() {
+    return stalledWrites;
+  }
+
+  private void checkProgress() {
+    long now = System.currentTimeMillis();
+    for (Transfer transfer : transfers) {
+      transfer.checkProgress(now);
+    }
+  }
+
+  /**
+   * Adds a thread to the pool for the time of a stalled write.
+   */
+  private synchronized void addStalledWrite() {
+    stalledWrites++;
+    // the maximum size first: it can't be lower than the core size
+    writers.setMaximumPoolSize(threads + stalledWrites);
+    writers.setCorePoolSize(threads + stalledWrites);
+  }
+
+  private synchronized void removeStalledWrite() {
+    stalledWrites--;
+    writers.setCorePoolSize(threads + stalledWrites);
+    writers.setMaximumPoolSize(threads + stalledWrites);
+  }
+
+  private class Transfer implements Runnable, AsyncListener {
+
+    private final FileInputStream in;
+    private final OutputStream out;
+    private final byte[] buffer;
+    private final long end;
+    private long position;
+    private AsyncContext context = null;
+    private Method isReady = null;
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+    // the time of the last chunk written
+    private volatile long lastProgress = System.currentTimeMillis();
+    // the start time of the blocking write in progress, 0 if none
+    private long writeStart = 0;
+    private boolean stalled = false;
+
+    Transfer(File file, long offset, long length, OutputStream out) throws IOException {
+      this.in = new FileInputStream(file);
+      this.out = out;
+      this.buffer = new byte[(int) Math.min(CHUNK_SIZE, Math.max(length, 1))];
+      this.position = offset;
+      this.end = offset + length;
+    }
+
+    void start(AsyncContext context) {
+      this.context = context;
+      context.addListener(this);
+      transfers.add(this);
+      next();
+    }
+
+    void startNonBlocking(AsyncContext context, Method setWriteListener, Method isReady) {
+      this.context = context;
+      this.isReady = isReady;
+      context.addListener(this);
+      transfers.add(this);
+      Class<?> listenerType = setWriteListener.getParameterTypes()[0];
+      Object listener = Proxy.newProxyInstance(listenerType.getClassLoader(),
+          new Class<?>[] { listenerType },
+          new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              String name = method.getName();
+              if ("onWritePossible".equals(name)) {
+                writeWhileReady();
+              } else if ("onError".equals(name)) {
+                finish();
+              } else if ("equals".equals(name)) {
+                return proxy == args[0];
+              } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+              } else if ("toString".equals(name)) {
+                return "AsyncFileTransfer.WriteListener@" + System.identityHashCode(proxy);
+              }
+              return null;
+            }
+          });
+      invoke(setWriteListener, out, listener);
+    }
+
+    /**
+     * Writes the chunks as long as the output stream accepts them without blocking; the container
+     * calls again the listener once the stream is ready.
+     */
+    private void writeWhileReady() {
+      try {
+        while (!finished.get() && Boolean.TRUE.equals(invoke(isReady, out))) {
+          if (position >= end) {
+            finish();
+            return;
+          }
+          writeChunk();
+        }
+      } catch (IOException e) {
+        stopped(e);
+      } catch (RuntimeException e) {
+        failed(e);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (finished.get()) {
+        return;
+      }
+      try {
+        beginWrite();
+        try {
+          writeChunk();
+          out.flush();
+        } finally {
+          endWrite();
+        }
+        next();
+      } catch (IOException e) {
+        stopped(e);
+      } catch (RuntimeException e) {
+        failed(e);
+      }
+    }
+
+    private void writeChunk() throws IOException {
+      // positional read of the next chunk
+      int size = (int) Math.min(buffer.length, end - position);
+      int read = in.getChannel().read(ByteBuffer.wrap(buffer, 0, size), position);
+      if (read < 0) {
+        throw new IOException("Unexpected end of file at " + position);
+      }
+      out.write(buffer, 0, read);
+      position += read;
+      lastProgress = System.currentTimeMillis();
+    }
+
+    private synchronized void beginWrite() {
+      writeStart = System.currentTimeMillis();
+    }
+
+    private synchronized void endWrite() {
+      writeStart = 0;
+      if (stalled) {
+        stalled = false;
+        removeStalledWrite();
+        stalledThreads.release();
+      }
+    }
+
+    /**
+     * Abandons the download if no chunk was written during the idle timeout, otherwise checks
+     * whether its blocking write is stalled.
+     */
+    void checkProgress(long now) {
+      if (idleTimeout > 0 && now - lastProgress >= idleTimeout) {
+        SilverTrace.info("peasUtil", "AsyncFileTransfer.checkProgress()",
+            "root.MSG_GEN_PARAM_VALUE", "download idle at " + position + " abandoned");
+        finish();
+      } else {
+        checkStalled(now);
+      }
+    }
+
+    /**
+     * Gives a thread of the stalled budget to the pool if the write in progress is stalled.
+     */
+    private synchronized void checkStalled(long now) {
+      if (!stalled && writeStart > 0 && now - writeStart >= stallDelay &&
+          stalledThreads.tryAcquire()) {
+        stalled = true;
+        addStalledWrite();
+      }
+    }
+
+    private void next() {
+      if (position >= end) {
+        finish();
+        return;
+      }
+      try {
+        writers.execute(this);
+      } catch (RejectedExecutionException e) {
+        // the writers are stopped
+        finish();
+      }
+    }
+
+    private void stopped(IOException e) {
+      // the client has gone away
+      SilverTrace.info("peasUtil", "AsyncFileTransfer.run()", "root.MSG_GEN_PARAM_VALUE",
+          "download stopped at " + position + ": " + e.getMessage());
+      finish();
+    }
+
+    private void failed(RuntimeException e) {
+      SilverTrace.warn("peasUtil", "AsyncFileTransfer.run()", "root.EX_CANT_READ_FILE",
+          "download stopped at " + position, e);
+      finish();
+    }
+
+    void finish() {
+      if (finished.compareAndSet(false, true)) {
+        transfers.remove(this);
+        IOUtils.closeQuietly(in);
+        downloads.release();
+        if (context != null) {
+          try {
+            context.complete();
+          } catch (IllegalStateException e) {
+            // the request is already completed
+          }
+        }
+      }
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      finish();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      finish();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      finish();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+  }
+
+  private static Object invoke(Method method, Object target, Object... args) {
+    try {
+      return method.invoke(target, args);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+}
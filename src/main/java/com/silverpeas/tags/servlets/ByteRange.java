@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2000 - 2015 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of the GPL, you may
+ * redistribute this Program in connection with Free/Libre Open Source Software ("FLOSS")
+ * applications as described in Silverpeas's FLOSS exception. You should have received a copy of the
+ * text describing the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.silverpeas.tags.servlets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A range of bytes of a file, as asked in the Range header of an HTTP request (RFC 7233).
+ */
+public class ByteRange {
+
+  /**
+   * Beyond this number of ranges, the Range header is ignored and the whole file is sent.
+   */
+  public static final int MAX_RANGES = 100;
+  private static final String BYTES_UNIT = "bytes=";
+  private static final Comparator<ByteRange> BY_START = new Comparator<ByteRange>() {
+    @Override
+    public int compare(ByteRange range1, ByteRange range2) {
+      return range1.start < range2.start ? -1 : (range1.start == range2.start ? 0 : 1);
+    }
+  };
+
+  private final long start;
+  private final long end;
+
+  /**
+   * @param start the position of the first byte.
+   * @param end the position of the last byte, included.
+   */
+  public ByteRange(long start, long end) {
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * Parses the value of a Range header. The overlapping or adjacent ranges are coalesced (RFC 7233
+   * section 6.1), so that no byte of the file is sent twice.
+   * @param header the value of the header.
+   * @param length the length of the file.
+   * @return the satisfiable ranges in ascending order, an empty list if none of them is
+   * satisfiable, null if the header is invalid or has to be ignored.
+   */
+  public static List<ByteRange> parse(String header, long length) {
+    if (header == null || !header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+      return null;
+    }
+    String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+    if (specs.length > MAX_RANGES) {
+      return null;
+    }
+    List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+    boolean empty = true;
+    for (String spec : specs) {
+      spec = spec.trim();
+      if (spec.length() == 0) {
+        continue;
+      }
+      empty = false;
+      int dash = spec.indexOf('-');
+      if (dash < 0) {
+        return null;
+      }
+      long first = parsePosition(spec.substring(0, dash).trim());
+      long last = parsePosition(spec.substring(dash + 1).trim());
+      if (first == -1 && last == -1 || first == -2 || last == -2) {
+        return null;
+      }
+      if (first == -1) {
+        // suffix range: the last bytes of the file
+        if (last > 0 && length > 0) {
+          ranges.add(new ByteRange(Math.max(0, length - last), length - 1));
+        }
+      } else if (last != -1 && last < first) {
+        return null;
+      } else if (first < length) {
+        ranges.add(new ByteRange(first, last == -1 ? length - 1 : Math.min(last, length - 1)));
+      }
+    }
+    return empty ? null : coalesce(ranges);
+  }
+
+  private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+    if (ranges.size() < 2) {
+      return ranges;
+    }
+    Collections.sort(ranges, BY_START);
+    List<ByteRange> coalesced = new ArrayList<ByteRange>(ranges.size());
+    ByteRange current = ranges.get(0);
+    for (int i = 1; i < ranges.size(); i++) {
+      ByteRange range = ranges.get(i);
+      if (range.start <= current.end + 1) {
+        if (range.end > current.end) {
+          current = new ByteRange(current.start, range.end);
+        }
+      } else {
+        coalesced.add(current);
+        current = range;
+      }
+    }
+    coalesced.add(current);
+    return coalesced;
+  }
+
+  /**
+   * @return the position, -1 if it is missing, -2 if it is invalid.
+   */
+  private static long parsePosition(String position) {
+    if (position.length() == 0) {
+      return -1;
+    }
+    for (int i = 0; i < position.length(); i++) {
+      char c = position.charAt(i);
+      if (c < '0' || c > '9') {
+        return -2;
+      }
+    }
+    try {
+      return Long.parseLong(position);
+    } catch (NumberFormatException e) {
+      return -2;
+    }
+  }
+
+  public long getStart() {
+    return start;
+  }
+
+  public long getEnd() {
+    return end;
+  }
+
+  public long getLength() {
+    return end - start + 1;
+  }
+
+  /**
+   * @param length the length of the file.
+   * @return the value of the Content-Range header of this range.
+   */
+  public String getContentRange(long length) {
+    return "bytes " + start + "-" + end + "/" + length;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof ByteRange)) {
+      return false;
+    }
+    ByteRange other = (ByteRange) obj;
+    return start == other.start && end == other.end;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (31 * start + end);
+  }
+
+  @Override
+  public String toString() {
+    return start + "-" + end;
+  }
+}
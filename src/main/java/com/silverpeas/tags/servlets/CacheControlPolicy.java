@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2000 - 2015 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of the GPL, you may
+ * redistribute this Program in connection with Free/Libre Open Source Software ("FLOSS")
+ * applications as described in Silverpeas's FLOSS exception. You should have received a copy of the
+ * text describing the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.silverpeas.tags.servlets;
+
+import java.io.Serializable;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletConfig;
+
+/**
+ * The Cache-Control header to send with a file according to its MIME type. A policy is set for a
+ * MIME type (image/png), for all the subtypes of a type (image/*) or for all the files (*); the
+ * most specific one applies.
+ * <p/>
+ * The policies of {@link WebFileServer} are read from its init parameters named
+ * {@value #PARAMETER_PREFIX} followed by the MIME type, for instance cacheControl.image/* =
+ * private, max-age=86400.
+ */
+public class CacheControlPolicy implements Serializable {
+
+  public static final String PARAMETER_PREFIX = "cacheControl.";
+  private static final long serialVersionUID = 1L;
+  private static final String ALL_TYPES = "*";
+
+  private final Map<String, String> policies = new HashMap<String, String>();
+
+  /**
+   * Reads the policies from the init parameters of a servlet.
+   * @param config the configuration of the servlet.
+   * @return the policies found, empty if none.
+   */
+  public static CacheControlPolicy fromInitParameters(ServletConfig config) {
+    CacheControlPolicy policy = new CacheControlPolicy();
+    Enumeration<?> names = config.getInitParameterNames();
+    while (names.hasMoreElements()) {
+      String name = (String) names.nextElement();
+      if (name.startsWith(PARAMETER_PREFIX)) {
+        policy.put(name.substring(PARAMETER_PREFIX.length()), config.getInitParameter(name));
+      }
+    }
+    return policy;
+  }
+
+  /**
+   * @param mimeType a MIME type, a type followed by /* or * for all the files.
+   * @param cacheControl the value of the Cache-Control header.
+   */
+  public void put(String mimeType, String cacheControl) {
+    policies.put(mimeType.trim().toLowerCase(), cacheControl.trim());
+  }
+
+  /**
+   * @param mimeType the MIME type of a file.
+   * @return the value of the Cache-Control header to send with the file, null if none.
+   */
+  public String get(String mimeType) {
+    if (mimeType != null) {
+      String type = mimeType.toLowerCase();
+      int parameters = type.indexOf(';');
+      if (parameters >= 0) {
+        type = type.substring(0, parameters);
+      }
+      type = type.trim();
+      String cacheControl = policies.get(type);
+      if (cacheControl != null) {
+        return cacheControl;
+      }
+      int slash = type.indexOf('/');
+      if (slash > 0) {
+        cacheControl = policies.get(type.substring(0, slash) + "/*");
+        if (cacheControl != null) {
+          return cacheControl;
+        }
+      }
+    }
+    return policies.get(ALL_TYPES);
+  }
+}
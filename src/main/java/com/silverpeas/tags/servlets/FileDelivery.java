@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2000 - 2015 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of the GPL, you may
+ * redistribute this Program in connection with Free/Libre Open Source Software ("FLOSS")
+ * applications as described in Silverpeas's FLOSS exception. You should have received a copy of the
+ * text describing the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.silverpeas.tags.servlets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Sends the content of a file in an HTTP response.
+ * <p/>
+ * When the servlet container supports it (Tomcat and JBoss Web with the NIO or APR connectors),
+ * the file is handed over to the container which sends it with sendfile once the servlet returns:
+ * the content goes from the file to the socket without being copied in the heap. Otherwise, or
+ * when the system property {@value #SENDFILE_PROPERTY} is false, the content is copied through a
+ * buffer of {@value #BUFFER_SIZE} bytes.
+ */
+public class FileDelivery {
+
+  public static final String SENDFILE_PROPERTY = "silverpeas.tags.sendfile";
+  static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+  static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+  static final int BUFFER_SIZE = 64 * 1024;
+  private static final String HEADER_CHARSET = "ISO-8859-1";
+
+  private FileDelivery() {
+  }
+
+  /**
+   * Sends a part of a file. The headers of the response (content type and length) must be set
+   * before.
+   * @param request the request of the file.
+   * @param response the response in which the file is sent.
+   * @param file the file to send.
+   * @param offset the position of the first byte to send.
+   * @param length the number of bytes to send.
+   * @throws IOException if the file can't be read or the response written.
+   */
+  public static void send(HttpServletRequest request, HttpServletResponse response, File file,
+      long offset, long length) throws IOException {
+    if (isSendfileSupported(request)) {
+      request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+      request.setAttribute(SENDFILE_START, Long.valueOf(offset));
+      request.setAttribute(SENDFILE_END, Long.valueOf(offset + length));
+    } else {
+      copy(file, offset, length, response.getOutputStream());
+    }
+  }
+
+  /**
+   * Sets the status and the headers of a partial content (206) response made of a single range.
+   * @param response the response in which the range is sent.
+   * @param contentType the content type of the file.
+   * @param range the range to send.
+   * @param length the length of the whole file.
+   */
+  public static void setRangeHeaders(HttpServletResponse response, String contentType,
+      ByteRange range, long length) {
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    response.setContentType(contentType);
+    response.setHeader("Content-Range", range.getContentRange(length));
+    response.setHeader("Content-Length", String.valueOf(range.getLength()));
+  }
+
+  /**
+   * Sends some ranges of a file in a partial content (206) response: a single range is sent as
+   * is, several ranges are sent in a multipart/byteranges body.
+   * @param request the request of the file.
+   * @param response the response in which the ranges are sent.
+   * @param file the file to send.
+   * @param contentType the content type of the file.
+   * @param ranges the satisfiable ranges to send, at least one.
+   * @throws IOException if the file can't be read or the response written.
+   */
+  public static void sendRanges(HttpServletRequest request, HttpServletResponse response,
+      File file, String contentType, List<ByteRange> ranges) throws IOException {
+    long length = file.length();
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    if (ranges.size() == 1) {
+      ByteRange range = ranges.get(0);
+      setRangeHeaders(response, contentType, range, length);
+      send(request, response, file, range.getStart(), range.getLength());
+      return;
+    }
+    String boundary = Long.toHexString(System.nanoTime()) + Long.toHexString(length);
+    List<byte[]> partHeaders = new ArrayList<byte[]>(ranges.size());
+    long contentLength = 0;
+    for (ByteRange range : ranges) {
+      String header = "\r\n--" + boundary + "\r\nContent-Type: " + contentType +
+          "\r\nContent-Range: " + range.getContentRange(length) + "\r\n\r\n";
+      byte[] partHeader = header.getBytes(HEADER_CHARSET);
+      partHeaders.add(partHeader);
+      contentLength += partHeader.length + range.getLength();
+    }
+    byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(HEADER_CHARSET);
+    contentLength += end.length;
+    response.setContentType("multipart/byteranges; boundary=" + boundary);
+    response.setHeader("Content-Length", String.valueOf(contentLength));
+    OutputStream out = response.getOutputStream();
+    FileInputStream in = new FileInputStream(file);
+    try {
+      FileChannel channel = in.getChannel();
+      byte[] buffer = new byte[BUFFER_SIZE];
+      for (int i = 0; i < ranges.size(); i++) {
+        ByteRange range = ranges.get(i);
+        out.write(partHeaders.get(i));
+        copy(channel, range.getStart(), range.getLength(), buffer, out);
+      }
+      out.write(end);
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Copies a part of a file into a stream through a buffer.
+   * @param file the file to copy.
+   * @param offset the position of the first byte to copy.
+   * @param length the number of bytes to copy.
+   * @param out the stream in which the bytes are written.
+   * @throws IOException if the file can't be read or the stream written.
+   */
+  public static void copy(File file, long offset, long length, OutputStream out)
+      throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+      copy(in.getChannel(), offset, length, buffer, out);
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Copies a part of a file with positional reads: the bytes before the offset are never read.
+   */
+  private static void copy(FileChannel channel, long offset, long length, byte[] buffer,
+      OutputStream out) throws IOException {
+    ByteBuffer bytes = ByteBuffer.wrap(buffer);
+    long position = offset;
+    long end = offset + length;
+    while (position < end) {
+      bytes.clear();
+      bytes.limit((int) Math.min(buffer.length, end - position));
+      int read = channel.read(bytes, position);
+      if (read < 0) {
+        throw new IOException("Unexpected end of file at " + position);
+      }
+      out.write(buffer, 0, read);
+      position += read;
+    }
+  }
+
+  static boolean isSendfileSupported(HttpServletRequest request) {
+    return Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT)) &&
+        Boolean.parseBoolean(System.getProperty(SENDFILE_PROPERTY, "true"));
+  }
+}
@@ -45,4 +45,22 @@ public class OnlineAttachment extends OnlineFile {
   public File getContentFile() throws IOException {
     return new File(document.getAttachmentPath());
   }
+
+  /**
+   * Each version of a document is stored in its own directory, in the directory of the document:
+   * .../{document}/{major}_{minor}/{language}/{file name}. A new version adds then a directory to
+   * it, and changes its modification date.
+   */
+  @Override
+  public File getVersionsDirectory(File contentFile) {
+    File languageDirectory = contentFile.getParentFile();
+    File versionDirectory = languageDirectory == null ? null : languageDirectory.getParentFile();
+    return versionDirectory == null ? null : versionDirectory.getParentFile();
+  }
+
+  @Override
+  protected String getIdentity() {
+    return document.getId() + "/" + document.getLanguage() + "/" + document.getMajorVersion() +
+        "." + document.getMinorVersion();
+  }
 }
\ No newline at end of file
@@ -52,6 +52,34 @@ public class OnlineFile {
   public String getComponentId() {
     return componentId;
   }
+
+  /**
+   * Gets the strong entity tag of the content of this file, which changes with the file and with
+   * its content.
+   * @param contentFile the content file, as returned by {@link #getContentFile()}.
+   * @return the quoted entity tag.
+   */
+  public String getETag(File contentFile) {
+    return "\"" + Integer.toHexString(getIdentity().hashCode()) + "-" +
+        Long.toHexString(contentFile.length()) + "-" + Long.toHexString(contentFile.lastModified()) +
+        "\"";
+  }
+
+  /**
+   * @param contentFile the content file, as returned by {@link #getContentFile()}.
+   * @return the directory to which a new version of this file is added, null if the file has no
+   * versions.
+   */
+  public File getVersionsDirectory(File contentFile) {
+    return null;
+  }
+
+  /**
+   * @return what identifies this file whatever its content.
+   */
+  protected String getIdentity() {
+    return componentId + "/" + directory + "/" + sourceFile;
+  }
   public File getContentFile() throws IOException {
     String filePath = FileRepositoryManager.getAbsolutePath(componentId) + directory
         + File.separator + sourceFile;
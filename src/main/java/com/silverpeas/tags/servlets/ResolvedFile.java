@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2000 - 2015 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of the GPL, you may
+ * redistribute this Program in connection with Free/Libre Open Source Software ("FLOSS")
+ * applications as described in Silverpeas's FLOSS exception. You should have received a copy of the
+ * text describing the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.silverpeas.tags.servlets;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.silverpeas.util.FileUtil;
+
+/**
+ * A file asked to {@link WebFileServer} once resolved: its content file and the metadata sent in
+ * the headers of the response. It is kept for a while so that the next requests of the same file
+ * are answered without querying the attachment service or the gallery. It is stale as soon as its
+ * content file changes, or a new version of the file is stored elsewhere.
+ */
+public class ResolvedFile {
+
+  private final File contentFile;
+  private final String contentType;
+  private final long length;
+  private final long lastModified;
+  private final String eTag;
+  private final File versionsDirectory;
+  private final long versionsLastModified;
+
+  private ResolvedFile(OnlineFile source, File contentFile) {
+    this.contentFile = contentFile;
+    this.contentType = FileUtil.getMimeType(contentFile.getName());
+    this.length = contentFile.length();
+    this.lastModified = contentFile.lastModified();
+    this.eTag = source.getETag(contentFile);
+    this.versionsDirectory = source.getVersionsDirectory(contentFile);
+    this.versionsLastModified = versionsDirectory == null ? 0 : versionsDirectory.lastModified();
+  }
+
+  /**
+   * @param source the file asked.
+   * @return the resolved file, null if its content file doesn't exist.
+   * @throws IOException if the content file can't be found.
+   */
+  public static ResolvedFile of(OnlineFile source) throws IOException {
+    File contentFile = source.getContentFile();
+    if (!contentFile.exists() && !contentFile.isFile()) {
+      return null;
+    }
+    return new ResolvedFile(source, contentFile);
+  }
+
+  /**
+   * @return true if the content file has changed, or a version has been added, since the file was
+   * resolved.
+   */
+  public boolean isStale() {
+    return contentFile.length() != length || contentFile.lastModified() != lastModified ||
+        (versionsDirectory != null && versionsDirectory.lastModified() != versionsLastModified);
+  }
+
+  public File getContentFile() {
+    return contentFile;
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  public String getETag() {
+    return eTag;
+  }
+}
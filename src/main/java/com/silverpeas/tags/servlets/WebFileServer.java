@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringReader;
 import java.rmi.RemoteException;
+import java.util.List;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -42,8 +43,9 @@ import com.silverpeas.gallery.model.Media;
 import com.silverpeas.gallery.model.MediaPK;
 import com.silverpeas.gallery.model.Photo;
 import com.silverpeas.tags.authentication.AuthenticationManager;
+import com.silverpeas.tags.cache.CacheLoader;
+import com.silverpeas.tags.cache.ExpiringCache;
 import com.silverpeas.tags.util.Admin;
-import com.silverpeas.util.FileUtil;
 import com.silverpeas.util.StringUtil;
 import com.silverpeas.util.web.servlet.RestRequest;
 import com.stratelia.silverpeas.silvertrace.SilverTrace;
@@ -52,13 +54,60 @@ import com.stratelia.webactiv.util.JNDINames;
 import com.stratelia.webactiv.util.ResourceLocator;
 import com.stratelia.webactiv.util.exception.SilverpeasRuntimeException;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
 public class WebFileServer extends HttpServlet {
 
   private static final long serialVersionUID = 1L;
+  private static final String[] RESOLUTION_PARAMETERS = { "componentId", "ComponentId",
+      "attachmentId", "lang", "ImageId", "UseOriginal", "SourceFile", "Directory", "MimeType" };
+  // seconds before a client should retry when too many downloads are in progress
+  private static final int RETRY_AFTER = 10;
   private Admin admin = null;
+  private CacheControlPolicy cacheControlPolicy = new CacheControlPolicy();
+  // files resolved by request parameters, and access rights by user and component
+  private final ExpiringCache<String, ResolvedFile> resolvedFiles =
+      new ExpiringCache<String, ResolvedFile>("resolvedFiles", 5000, 60 * 1000L);
+  private final ExpiringCache<String, Boolean> authorizations =
+      new ExpiringCache<String, Boolean>("fileAuthorizations", 10000, 30 * 1000L);
+  // large files sent in asynchronous requests, when the container can't send them itself
+  private AsyncFileTransfer asyncTransfer = null;
+  private long asyncThreshold = 1024 * 1024L;
+
+  @Override
+  public void init() throws ServletException {
+    cacheControlPolicy = CacheControlPolicy.fromInitParameters(getServletConfig());
+    int threads = getIntParameter("async.threads", 8);
+    if (threads > 0) {
+      asyncThreshold = getIntParameter("async.threshold", 1024 * 1024);
+      // a download is abandoned after five minutes without progress by default
+      asyncTransfer = new AsyncFileTransfer(threads,
+          getIntParameter("async.stalledThreads", threads),
+          getIntParameter("async.maxDownloads", 200),
+          getIntParameter("async.idleTimeout", 300) * 1000L, AsyncFileTransfer.DEFAULT_STALL_DELAY);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (asyncTransfer != null) {
+      asyncTransfer.shutdown();
+    }
+    super.destroy();
+  }
+
+  private int getIntParameter(String name, int defaultValue) {
+    String value = getInitParameter(name);
+    if (StringUtil.isDefined(value)) {
+      try {
+        return Integer.parseInt(value.trim());
+      } catch (NumberFormatException e) {
+        SilverTrace.warn("peasUtil", "WebFileServer.init()", "root.MSG_GEN_PARAM_VALUE",
+            "invalid parameter " + name + "=" + value);
+      }
+    }
+    return defaultValue;
+  }
 
   @Override
   public void service(HttpServletRequest req, HttpServletResponse res) throws ServletException,
@@ -70,10 +119,11 @@ public class WebFileServer extends HttpServlet {
     if (!StringUtil.isDefined(componentId)) {
       componentId = restRequest.getElementValue("ComponentId"); // forward compatibility
     }
-    if (getAdmin().isUserAllowed(userId, componentId)) {
-      OnlineFile file = getWantedFile(restRequest);
+    if (isUserAllowed(userId, componentId)) {
+      String key = getResolutionKey(restRequest);
+      ResolvedFile file = resolve(key, restRequest);
       if (file != null) {
-        display(res, file);
+        display(req, res, file);
         return;
       }
       displayWarningHtmlCode(res);
@@ -82,6 +132,70 @@ public class WebFileServer extends HttpServlet {
     }
   }
 
+  /**
+   * Gets the file wanted by the request, as resolved by a previous request with the same
+   * parameters if it is still in the cache and unchanged.
+   * @param key the resolution parameters of the request.
+   * @return the resolved file, null if it doesn't exist.
+   */
+  ResolvedFile resolve(String key, RestRequest restRequest) throws IOException {
+    ResolvedFile file = resolvedFiles.getIfPresent(key);
+    // a stat of the file, so that a changed file is never answered as not modified: it is resolved
+    // again, as a new version is stored in another file
+    if (file == null || file.isStale()) {
+      file = null;
+      OnlineFile wantedFile = getWantedFile(restRequest);
+      if (wantedFile != null) {
+        file = ResolvedFile.of(wantedFile);
+      }
+      if (file != null) {
+        resolvedFiles.put(key, file);
+      } else {
+        resolvedFiles.invalidate(key);
+      }
+    }
+    return file;
+  }
+
+  /**
+   * Checks the access of the user to the component, keeping the answer for a few seconds: a page
+   * embedding several files of a component is then checked once.
+   */
+  boolean isUserAllowed(final String userId, final String componentId) throws RemoteException {
+    try {
+      return authorizations.get(userId + "|" + componentId, new CacheLoader<String, Boolean>() {
+        @Override
+        public Boolean load(String key) throws Exception {
+          return checkUserAllowed(userId, componentId);
+        }
+      });
+    } catch (RemoteException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RemoteException("Admin.isUserAllowed", e);
+    }
+  }
+
+  /**
+   * Asks the administration whether the user can access the component.
+   */
+  protected boolean checkUserAllowed(String userId, String componentId) throws RemoteException {
+    return getAdmin().isUserAllowed(userId, componentId);
+  }
+
+  /**
+   * @return the parameters of the request from which the wanted file is resolved
+   */
+  private String getResolutionKey(RestRequest restRequest) {
+    StringBuilder key = new StringBuilder();
+    for (String parameter : RESOLUTION_PARAMETERS) {
+      key.append(restRequest.getElementValue(parameter)).append('|');
+    }
+    return key.append(restRequest.getWebRequest().getParameter("attachmentId")).toString();
+  }
+
   public OnlineFile getFileFromOldURL(RestRequest restRequest) throws RemoteException {
     SilverTrace.info("peasUtil", "WebFileServer.doPost", "root.MSG_GEN_ENTER_METHOD");
     OnlineFile file = null;
@@ -159,18 +273,57 @@ public class WebFileServer extends HttpServlet {
    * this String is null that an exception had been catched the html document generated is empty !!
    * also, we display a warning html page
    */
-  private void display(HttpServletResponse response, OnlineFile file) throws IOException {
-    File realFile = file.getContentFile();
-    if (!realFile.exists() && !realFile.isFile()) {
-      displayWarningHtmlCode(response);
+  void display(HttpServletRequest request, HttpServletResponse response, ResolvedFile file)
+      throws IOException {
+    String eTag = file.getETag();
+    String cacheControl = cacheControlPolicy.get(file.getContentType());
+    if (cacheControl != null) {
+      response.setHeader("Cache-Control", cacheControl);
+    }
+    if (isNotModified(request, eTag, file.getLastModified())) {
+      // answered from the resolved metadata, without reading the file
+      response.setHeader("ETag", eTag);
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
       return;
     }
+    File realFile = file.getContentFile();
     SilverTrace.info("peasUtil", "OnlineFileServer.display()", "root.MSG_GEN_ENTER_METHOD",
         " htmlFilePath " + realFile.getPath());
     try {
-      response.setContentType(FileUtil.getMimeType(realFile.getName()));
-      response.setHeader("Content-Length", String.valueOf(realFile.length()));
-      FileUtils.copyFile(realFile, response.getOutputStream());
+      String contentType = file.getContentType();
+      long length = file.getLength();
+      response.setHeader("Accept-Ranges", "bytes");
+      response.setHeader("ETag", eTag);
+      response.setDateHeader("Last-Modified", file.getLastModified());
+      List<ByteRange> ranges = getRanges(request, file);
+      if (ranges != null && ranges.isEmpty()) {
+        response.setHeader("Content-Range", "bytes */" + length);
+        response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      } else if (ranges != null && ranges.size() > 1) {
+        FileDelivery.sendRanges(request, response, realFile, contentType, ranges);
+      } else {
+        ByteRange range = ranges == null ? null : ranges.get(0);
+        long offset = range == null ? 0 : range.getStart();
+        long count = range == null ? length : range.getLength();
+        boolean async = isAsyncTransfer(request, count);
+        if (async && !asyncTransfer.reserve()) {
+          // too many downloads in progress
+          response.setHeader("Retry-After", String.valueOf(RETRY_AFTER));
+          response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+          return;
+        }
+        if (range == null) {
+          response.setContentType(contentType);
+          response.setHeader("Content-Length", String.valueOf(length));
+        } else {
+          FileDelivery.setRangeHeaders(response, contentType, range, length);
+        }
+        if (async) {
+          asyncTransfer.start(request, response, realFile, offset, count);
+        } else {
+          FileDelivery.send(request, response, realFile, offset, count);
+        }
+      }
     } catch (Exception e) {
       SilverTrace.warn("peasUtil", "OnlineFileServer.doPost", "root.EX_CANT_READ_FILE", "file name="
           + realFile.getPath());
@@ -178,6 +331,79 @@ public class WebFileServer extends HttpServlet {
     }
   }
 
+  /**
+   * The large bodies are sent asynchronously, unless the container sends the file itself
+   * (sendfile) or the request doesn't support it.
+   */
+  private boolean isAsyncTransfer(HttpServletRequest request, long count) {
+    return asyncTransfer != null && count >= asyncThreshold && !"HEAD".equals(request.getMethod())
+        && request.isAsyncSupported() && !FileDelivery.isSendfileSupported(request);
+  }
+
+  /**
+   * Checks the validators of a conditional GET (RFC 7232): If-Modified-Since is checked only
+   * without If-None-Match.
+   *
+   * @return true if the browser already has the file
+   */
+  private boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+    String method = request.getMethod();
+    if (!"GET".equals(method) && !"HEAD".equals(method)) {
+      return false;
+    }
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        // weak comparison
+        if ("*".equals(tag) || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(eTag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    try {
+      long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+      // the dates of the HTTP headers are precise to the second
+      return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Gets the ranges of the file asked by the request (RFC 7233). The ranges are ignored if the
+   * file doesn't match the entity tag or the date given by the If-Range header.
+   *
+   * @return the satisfiable ranges, an empty list if none of them is satisfiable, null to send the
+   * whole file
+   */
+  private List<ByteRange> getRanges(HttpServletRequest request, ResolvedFile file) {
+    String range = request.getHeader("Range");
+    if (range == null || !"GET".equals(request.getMethod())) {
+      return null;
+    }
+    String ifRange = request.getHeader("If-Range");
+    if (ifRange != null) {
+      if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+        // strong comparison: a weak entity tag never matches
+        if (!ifRange.equals(file.getETag())) {
+          return null;
+        }
+      } else {
+        try {
+          // the dates of the HTTP headers are precise to the second
+          if (request.getDateHeader("If-Range") / 1000 != file.getLastModified() / 1000) {
+            return null;
+          }
+        } catch (IllegalArgumentException e) {
+          return null;
+        }
+      }
+    }
+    return ByteRange.parse(range, file.getLength());
+  }
+
   private void displayWarningHtmlCode(HttpServletResponse res) throws IOException {
     OutputStream out2 = res.getOutputStream();
     ResourceLocator resourceLocator = new ResourceLocator(
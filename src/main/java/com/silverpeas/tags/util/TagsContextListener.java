@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.util;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import com.silverpeas.tags.navigation.NavigationCacheInvalidator;
+import com.silverpeas.tags.pdc.PdcTreeCache;
+import com.silverpeas.tags.searchEngine.SearchResultCache;
+
+/**
+ * Stops the shared caches of the tags when the web application stops: they are detached from
+ * the Silverpeas notifications and removed from JMX, so that a redeployed application doesn't
+ * leave them, and its class loader, behind. The listener is declared in the tag library
+ * descriptor and then registered in every web application using the tags.
+ */
+public class TagsContextListener implements ServletContextListener {
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    // the caches are created on their first use
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    NavigationCacheInvalidator.shutdown();
+    PdcTreeCache.shutdown();
+    SearchResultCache.shutdown();
+  }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ExpiringCacheTest {
+
+  @Test
+  public void testValueIsLoadedOnce() throws Exception {
+    ExpiringCache<String, String> cache = new ExpiringCache<String, String>("test", 10, 60000);
+    CountingLoader loader = new CountingLoader(0);
+    assertEquals("value-a", cache.get("a", loader));
+    assertEquals("value-a", cache.get("a", loader));
+    assertEquals(1, loader.count.get());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void testEntryExpires() throws Exception {
+    ExpiringCache<String, String> cache = new ExpiringCache<String, String>("test", 10, 50);
+    CountingLoader loader = new CountingLoader(0);
+    cache.get("a", loader);
+    Thread.sleep(100);
+    assertNull(cache.getIfPresent("a"));
+    cache.get("a", loader);
+    assertEquals(2, loader.count.get());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+    ExpiringCache<String, String> cache = new ExpiringCache<String, String>("test", 2, 60000);
+    CountingLoader loader = new CountingLoader(0);
+    cache.get("a", loader);
+    cache.get("b", loader);
+    cache.get("a", loader);
+    cache.get("c", loader);
+    assertEquals(2, cache.size());
+    assertNotNull(cache.getIfPresent("a"));
+    assertNull(cache.getIfPresent("b"));
+    assertEquals(1, cache.getEvictionCount());
+  }
+
+  @Test
+  public void testConcurrentMissesAreCoalesced() throws Exception {
+    final ExpiringCache<String, String> cache =
+        new ExpiringCache<String, String>("test", 10, 60000);
+    final CountingLoader loader = new CountingLoader(200);
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    Future<?>[] results = new Future<?>[16];
+    for (int i = 0; i < results.length; i++) {
+      results[i] = executor.submit(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          start.await();
+          return cache.get("a", loader);
+        }
+      });
+    }
+    start.countDown();
+    for (Future<?> result : results) {
+      assertEquals("value-a", result.get(5, TimeUnit.SECONDS));
+    }
+    executor.shutdown();
+    assertEquals(1, loader.count.get());
+  }
+
+  /**
+   * Each loader waits for all the others: the misses on different keys must be loaded at the same
+   * time, whereas a loading done under a global monitor, as it was previously done in
+   * PublicationCache, would run a single loader at once.
+   */
+  @Test
+  public void testConcurrentMissesOnDifferentKeysRunInParallel() throws Exception {
+    final int threads = 16;
+    final CountDownLatch allLoading = new CountDownLatch(threads);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+      @Override
+      public String load(String key) throws Exception {
+        int current = running.incrementAndGet();
+        int max = maxRunning.get();
+        while (current > max && !maxRunning.compareAndSet(max, current)) {
+          max = maxRunning.get();
+        }
+        allLoading.countDown();
+        try {
+          allLoading.await(10, TimeUnit.SECONDS);
+        } finally {
+          running.decrementAndGet();
+        }
+        return "value-" + key;
+      }
+    };
+    final ExpiringCache<String, String> cache =
+        new ExpiringCache<String, String>("test", threads, 60000);
+    runConcurrently(threads, new KeyedTask() {
+      @Override
+      public String run(String key) throws Exception {
+        return cache.get(key, loader);
+      }
+    });
+    assertEquals(threads, maxRunning.get());
+    assertEquals(threads, cache.getMissCount());
+  }
+
+  @Test
+  public void testFailedLoadIsNotCached() throws Exception {
+    ExpiringCache<String, String> cache = new ExpiringCache<String, String>("test", 10, 60000);
+    CacheLoader<String, String> failingLoader = new CacheLoader<String, String>() {
+      @Override
+      public String load(String key) throws Exception {
+        throw new IllegalStateException(key);
+      }
+    };
+    try {
+      cache.get("a", failingLoader);
+      fail("the exception of the loader should be thrown");
+    } catch (IllegalStateException e) {
+      assertEquals("a", e.getMessage());
+    }
+    assertEquals(0, cache.size());
+    assertEquals("value-a", cache.get("a", new CountingLoader(0)));
+  }
+
+  @Test
+  public void testDisabledCacheAlwaysLoads() throws Exception {
+    ExpiringCache<String, String> cache = new ExpiringCache<String, String>("test", 10, 60000);
+    cache.configure(false, 10, 60000, 0);
+    CountingLoader loader = new CountingLoader(0);
+    cache.get("a", loader);
+    cache.get("a", loader);
+    assertEquals(2, loader.count.get());
+  }
+
+  @Test
+  public void testLookupWithoutLoaderCountsMisses() throws Exception {
+    ExpiringCache<String, String> cache = new ExpiringCache<String, String>("test", 10, 60000);
+    assertNull(cache.getIfPresent("a"));
+    cache.put("a", "value-a");
+    assertEquals("value-a", cache.getIfPresent("a"));
+    assertEquals("value-a", cache.peek("a"));
+    assertNull(cache.peek("b"));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void testEntryIsRefreshedAheadOfExpiration() throws Exception {
+    ExpiringCache<String, String> cache = new ExpiringCache<String, String>("test", 10, 60000);
+    cache.configure(true, 10, 60000, 59990);
+    final CountDownLatch refreshing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger loads = new AtomicInteger();
+    CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+      @Override
+      public String load(String key) throws Exception {
+        int load = loads.incrementAndGet();
+        if (load > 1) {
+          refreshing.countDown();
+          release.await(30, TimeUnit.SECONDS);
+        }
+        return "value-" + load;
+      }
+    };
+    assertEquals("value-1", cache.get("a", loader));
+    Thread.sleep(50);
+    // the entry is due for refresh: the current value is served while it is reloaded
+    assertEquals("value-1", cache.get("a", loader));
+    assertTrue(refreshing.await(30, TimeUnit.SECONDS));
+    assertEquals("value-1", cache.get("a", loader));
+    release.countDown();
+    long deadline = System.currentTimeMillis() + 30000;
+    while (!"value-2".equals(cache.getIfPresent("a")) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals("value-2", cache.peek("a"));
+    assertEquals(2, loads.get());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  private void runConcurrently(int threads, final KeyedTask task) throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    Future<?>[] results = new Future<?>[threads];
+    for (int i = 0; i < threads; i++) {
+      final String key = String.valueOf(i);
+      results[i] = executor.submit(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          start.await();
+          return task.run(key);
+        }
+      });
+    }
+    start.countDown();
+    for (Future<?> result : results) {
+      result.get(30, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+  }
+
+  private interface KeyedTask {
+
+    String run(String key) throws Exception;
+  }
+
+  private static class CountingLoader implements CacheLoader<String, String> {
+
+    private final AtomicInteger count = new AtomicInteger();
+    private final long latency;
+
+    CountingLoader(long latency) {
+      this.latency = latency;
+    }
+
+    @Override
+    public String load(String key) throws Exception {
+      count.incrementAndGet();
+      if (latency > 0) {
+        Thread.sleep(latency);
+      }
+      return "value-" + key;
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.kmelia;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+import com.silverpeas.tags.util.VisibilityException;
+import com.stratelia.webactiv.util.node.model.NodePK;
+import com.stratelia.webactiv.util.publication.model.Alias;
+import com.stratelia.webactiv.util.publication.model.PublicationDetail;
+import com.stratelia.webactiv.util.publication.model.PublicationPK;
+
+import static org.junit.Assert.*;
+
+/**
+ * Before/after benchmark of the location checks of KmeliaTagUtil.filterPublications: one remote
+ * call per publication against the locations of the whole component fetched at once, with an
+ * in-memory stand-in of the Kmelia EJB. Each remote call costs {@value #LATENCY_PROPERTY}
+ * microseconds (100 by default). Its name doesn't match the test patterns of the build: it is run
+ * on demand with <code>mvn test -Dtest=PublicationLocationFilterBenchmark</code>, the number of
+ * publications being read from the system property {@value #SIZE_PROPERTY}.
+ */
+public class PublicationLocationFilterBenchmark {
+
+  static final String SIZE_PROPERTY = "benchmark.publications";
+  static final String LATENCY_PROPERTY = "benchmark.remoteLatency";
+  private static final int ROUNDS = 5;
+
+  private final int size = Integer.getInteger(SIZE_PROPERTY, 10000);
+  private final long latency =
+      TimeUnit.MICROSECONDS.toNanos(Integer.getInteger(LATENCY_PROPERTY, 100));
+
+  @Test
+  public void compareSingleChecksWithTheComponentLocations() throws Exception {
+    List<PublicationDetail> publications = new ArrayList<PublicationDetail>(size);
+    StandInKmeliaBm kmeliaBm = new StandInKmeliaBm();
+    for (int i = 0; i < size; i++) {
+      String id = String.valueOf(i);
+      PublicationDetail pubDetail = new PublicationDetail();
+      pubDetail.setPk(new PublicationPK(id, "kmelia1"));
+      publications.add(pubDetail);
+      // one publication out of ten lies in the basket
+      if (i % 10 != 0) {
+        kmeliaBm.classified.add(id);
+      }
+    }
+    PublicationLocationFilter filter = new PublicationLocationFilter("kmelia1", kmeliaBm);
+
+    int before = 0;
+    int after = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      kmeliaBm.calls.set(0);
+      long start = System.nanoTime();
+      before = 0;
+      for (PublicationDetail pubDetail : publications) {
+        try {
+          filter.checkSingleLocation(pubDetail);
+          before++;
+        } catch (VisibilityException e) {
+          // in the basket
+        }
+      }
+      report(round, "one call per publication", start, kmeliaBm.calls.get());
+
+      kmeliaBm.calls.set(0);
+      start = System.nanoTime();
+      after = 0;
+      Set<String> outOfBasket = filter.getPublicationsOutOfBasket();
+      for (PublicationDetail pubDetail : publications) {
+        try {
+          filter.checkLocation(pubDetail, outOfBasket);
+          after++;
+        } catch (VisibilityException e) {
+          // in the basket
+        }
+      }
+      report(round, "component locations", start, kmeliaBm.calls.get());
+    }
+    assertEquals(size - (size + 9) / 10, before);
+    assertEquals(before, after);
+  }
+
+  private void report(int round, String name, long start, int calls) {
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    System.out.println(String.format("round %d %-26s %6d publications %8d ms %6d remote calls",
+        round, name, size, elapsed, calls));
+  }
+
+  /**
+   * Kmelia EJB held in memory, each call paying the latency of a remote call.
+   */
+  private class StandInKmeliaBm implements PublicationLocationFilter.LocationSource {
+
+    private final Set<String> classified = new HashSet<String>();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Override
+    public Set<String> getPublicationsOutOfBasket(String componentId) {
+      remoteCall();
+      return new HashSet<String>(classified);
+    }
+
+    @Override
+    public Collection<NodePK> getPublicationFathers(PublicationPK pubPK) {
+      remoteCall();
+      String fatherId = classified.contains(pubPK.getId()) ? "3" : "1";
+      return Collections.singletonList(new NodePK(fatherId, pubPK.getInstanceId()));
+    }
+
+    @Override
+    public Collection<Alias> getAlias(PublicationPK pubPK) {
+      remoteCall();
+      return Collections.emptyList();
+    }
+
+    private void remoteCall() {
+      calls.incrementAndGet();
+      long end = System.nanoTime() + latency;
+      while (System.nanoTime() < end) {
+        LockSupport.parkNanos(end - System.nanoTime());
+      }
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.kmelia;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverpeas.tags.util.VisibilityException;
+import com.stratelia.webactiv.util.node.model.NodePK;
+import com.stratelia.webactiv.util.publication.model.Alias;
+import com.stratelia.webactiv.util.publication.model.PublicationDetail;
+import com.stratelia.webactiv.util.publication.model.PublicationPK;
+
+import static org.junit.Assert.*;
+
+public class PublicationLocationFilterTest {
+
+  private CountingSource source;
+  private PublicationLocationFilter filter;
+
+  @Before
+  public void setUp() {
+    source = new CountingSource();
+    filter = new PublicationLocationFilter("kmelia1", source);
+  }
+
+  @Test
+  public void testUnknownPublicationIsCheckedAlone() throws Exception {
+    source.classified.add("1");
+    Set<String> outOfBasket = filter.getPublicationsOutOfBasket();
+    filter.checkLocation(newPublication("1", "kmelia1"), outOfBasket);
+    try {
+      filter.checkLocation(newPublication("2", "kmelia1"), outOfBasket);
+      fail("publication in the basket must be filtered");
+    } catch (VisibilityException e) {
+      assertEquals(1, source.fatherCalls);
+    }
+  }
+
+  @Test
+  public void testPublicationMovedToTheBasketIsHiddenAtOnce() throws Exception {
+    source.classified.add("4");
+    filter.checkLocation(newPublication("4", "kmelia1"), filter.getPublicationsOutOfBasket());
+    source.classified.remove("4");
+    try {
+      filter.checkLocation(newPublication("4", "kmelia1"), filter.getPublicationsOutOfBasket());
+      fail("publication moved to the basket must be filtered");
+    } catch (VisibilityException e) {
+      assertEquals(2, source.bulkCalls);
+    }
+  }
+
+  @Test
+  public void testPublicationOfAnotherComponentMustBeAnAlias() throws Exception {
+    source.classified.add("3");
+    try {
+      filter.checkLocation(newPublication("3", "kmelia2"), filter.getPublicationsOutOfBasket());
+      fail("publication of another component must be filtered");
+    } catch (VisibilityException e) {
+      assertEquals(1, source.fatherCalls);
+    }
+    source.aliases.add(new Alias("5", "kmelia1"));
+    filter.checkLocation(newPublication("3", "kmelia2"), filter.getPublicationsOutOfBasket());
+  }
+
+  private PublicationDetail newPublication(String id, String instanceId) {
+    PublicationDetail pubDetail = new PublicationDetail();
+    pubDetail.setPk(new PublicationPK(id, instanceId));
+    return pubDetail;
+  }
+
+  private static class CountingSource implements PublicationLocationFilter.LocationSource {
+
+    private final Set<String> classified = new HashSet<String>();
+    private final List<Alias> aliases = new ArrayList<Alias>();
+    private int bulkCalls = 0;
+    private int fatherCalls = 0;
+
+    @Override
+    public Set<String> getPublicationsOutOfBasket(String componentId) {
+      bulkCalls++;
+      return new HashSet<String>(classified);
+    }
+
+    @Override
+    public Collection<NodePK> getPublicationFathers(PublicationPK pubPK) {
+      fatherCalls++;
+      String fatherId = classified.contains(pubPK.getId()) ? "3" : "1";
+      return Collections.singletonList(new NodePK(fatherId, pubPK.getInstanceId()));
+    }
+
+    @Override
+    public Collection<Alias> getAlias(PublicationPK pubPK) {
+      return aliases;
+    }
+  }
+}
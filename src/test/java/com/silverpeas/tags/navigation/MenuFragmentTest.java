@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.navigation;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.stratelia.webactiv.util.node.model.NodeDetail;
+
+import static org.junit.Assert.*;
+
+public class MenuFragmentTest {
+
+  @Test
+  public void testOnlyTheClassNamesAreLeftForTheDisplay() {
+    NodeDetail theme = new NodeDetail();
+    MenuFragment menu = new MenuFragment();
+    menu.print("<li id='", true);
+    menu.print("topicId-12", true);
+    menu.print("' class='", true);
+    menu.printClassName(theme, "level1-filtered", true);
+    menu.print("'><a href='", true);
+    menu.print("/site/actualites/12", true);
+    menu.println("'></a></li>", true);
+    List<Object> parts = menu.build().getParts();
+    assertEquals(3, parts.size());
+    assertEquals("<li id='topicId-12' class='", parts.get(0));
+    MenuFragment.ClassName className = (MenuFragment.ClassName) parts.get(1);
+    assertEquals("level1-filtered", className.getClassName());
+    assertSame(theme, className.getTheme());
+    assertTrue(((String) parts.get(2)).startsWith("'><a href='/site/actualites/12'></a></li>"));
+  }
+
+  @Test
+  public void testHiddenItemsKeepOnlyTheirClassName() {
+    NodeDetail theme = new NodeDetail();
+    MenuFragment menu = new MenuFragment();
+    menu.print("<li id='", false);
+    menu.print("topicId-12", false);
+    menu.printClassName(theme, null, false);
+    menu.print("/site/actualites/12", false);
+    List<Object> parts = menu.build().getParts();
+    assertEquals(1, parts.size());
+    assertFalse(((MenuFragment.ClassName) parts.get(0)).isDisplayed());
+  }
+}
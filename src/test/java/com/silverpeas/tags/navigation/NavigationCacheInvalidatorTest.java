@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.navigation;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverpeas.tags.cache.CacheLoader;
+import com.silverpeas.tags.kmelia.KmeliaTagUtil;
+import com.stratelia.silverpeas.silverpeasinitialize.CallBackManager;
+import com.stratelia.webactiv.util.publication.model.PublicationPK;
+
+import static org.junit.Assert.*;
+
+public class NavigationCacheInvalidatorTest {
+
+  private final StandInListener listener = new StandInListener();
+  private final AtomicInteger builds = new AtomicInteger();
+  private final CacheLoader<String, MenuFragment> menuBuilder =
+      new CacheLoader<String, MenuFragment>() {
+        @Override
+        public MenuFragment load(String key) {
+          builds.incrementAndGet();
+          MenuFragment menu = new MenuFragment();
+          menu.println("<ul id='" + key + "'></ul>", true);
+          return menu.build();
+        }
+      };
+
+  @Before
+  public void registerListener() {
+    NavigationCacheInvalidator.getInstance().setListener(listener);
+    assertNotNull(listener.invalidator);
+  }
+
+  @After
+  public void unregisterListener() {
+    NavigationCacheInvalidator.getInstance().setListener(null);
+    assertNull(listener.invalidator);
+  }
+
+  @Test
+  public void testPublicationChangeEvictsTheMenusOfItsComponent() throws Exception {
+    KmeliaCaching changed = getCache("kmelia101");
+    KmeliaCaching other = getCache("kmelia102");
+    changed.getMenu("menu", menuBuilder);
+    other.getMenu("menu", menuBuilder);
+    changed.getMenu("menu", menuBuilder);
+    assertEquals(2, builds.get());
+
+    listener.invalidator.publicationChanged("kmelia101", "12");
+    changed.getMenu("menu", menuBuilder);
+    assertEquals(3, builds.get());
+    other.getMenu("menu", menuBuilder);
+    assertEquals(3, builds.get());
+  }
+
+  @Test
+  public void testTopicAndComponentChangesEvictTheMenus() throws Exception {
+    KmeliaCaching cache = getCache("kmelia103");
+    cache.getMenu("menu", menuBuilder);
+    listener.invalidator.topicChanged("kmelia103", 5);
+    cache.getMenu("menu", menuBuilder);
+    assertEquals(2, builds.get());
+    listener.invalidator.componentChanged("kmelia103");
+    cache.getMenu("menu", menuBuilder);
+    assertEquals(3, builds.get());
+    listener.invalidator.clearAll();
+    cache.getMenu("menu", menuBuilder);
+    assertEquals(4, builds.get());
+  }
+
+  @Test
+  public void testCallBacksEvictTheMenus() throws Exception {
+    NavigationCacheInvalidator.getInstance().setListener(new CallBackNavigationListener());
+    KmeliaCaching cache = getCache("kmelia104");
+    cache.getMenu("menu", menuBuilder);
+    CallBackManager.get().invoke(CallBackManager.ACTION_HEADER_PUBLICATION_UPDATE, 0, "kmelia104",
+        "12");
+    cache.getMenu("menu", menuBuilder);
+    assertEquals(2, builds.get());
+    CallBackManager.get().invoke(CallBackManager.ACTION_PUBLICATION_REMOVE, 0, "kmelia104",
+        new PublicationPK("12", "kmelia104"));
+    cache.getMenu("menu", menuBuilder);
+    assertEquals(3, builds.get());
+
+    // une source détachée ne transmet plus rien
+    NavigationCacheInvalidator.getInstance().setListener(listener);
+    CallBackManager.get().invoke(CallBackManager.ACTION_CUTANDPASTE, 0, "kmelia104", null);
+    cache.getMenu("menu", menuBuilder);
+    assertEquals(3, builds.get());
+  }
+
+  @Test
+  public void testShutdownUnregistersTheMBean() throws Exception {
+    ObjectName name = new ObjectName(NavigationCacheInvalidator.MBEAN_NAME);
+    assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    NavigationCacheInvalidator.shutdown();
+    assertNull(listener.invalidator);
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    NavigationCacheInvalidator.getInstance().setListener(listener);
+    assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+  }
+
+  private KmeliaCaching getCache(String componentId) {
+    return KmeliaCaching.getInstance(new KmeliaTagUtil("WA1", componentId, "0", false));
+  }
+
+  /**
+   * Bouchon de la source des modifications : le test transmet lui-même les événements.
+   */
+  private static class StandInListener implements NavigationEventListener {
+
+    private NavigationCacheInvalidator invalidator = null;
+
+    @Override
+    public void register(NavigationCacheInvalidator invalidator) {
+      this.invalidator = invalidator;
+    }
+
+    @Override
+    public void unregister() {
+      this.invalidator = null;
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.navigation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverpeas.tags.kmelia.KmeliaTagUtil;
+import com.stratelia.webactiv.util.publication.model.PublicationDetail;
+import com.stratelia.webactiv.util.publication.model.PublicationPK;
+
+import static org.junit.Assert.*;
+
+/**
+ * Contention benchmark of {@link PublicationCache}: {@value #THREADS} threads miss at the same
+ * time, on different publications then on the same one, against the former loading of the
+ * publications under a global monitor. Each remote call to the Kmelia EJB costs
+ * {@value #LATENCY_PROPERTY} milliseconds (20 by default). Its name doesn't match the test
+ * patterns of the build: it is run on demand with
+ * <code>mvn test -Dtest=PublicationCacheBenchmark</code>, the number of measured rounds being read
+ * from the system property {@value #ROUNDS_PROPERTY}.
+ */
+public class PublicationCacheBenchmark {
+
+  static final String LATENCY_PROPERTY = "benchmark.remoteLatency";
+  static final String ROUNDS_PROPERTY = "benchmark.rounds";
+  private static final int THREADS = 64;
+
+  private final int rounds = Integer.getInteger(ROUNDS_PROPERTY, 5);
+  private final int latency = Integer.getInteger(LATENCY_PROPERTY, 20);
+  private ExecutorService executor;
+
+  @Before
+  public void startThreads() {
+    executor = Executors.newFixedThreadPool(THREADS);
+  }
+
+  @After
+  public void stopThreads() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void compareWithGlobalMonitorOnDifferentPublications() throws Exception {
+    measure("kmeliaBenchmark1", false);
+  }
+
+  @Test
+  public void compareWithGlobalMonitorOnTheSamePublication() throws Exception {
+    measure("kmeliaBenchmark2", true);
+  }
+
+  /**
+   * @param componentId a component for each scenario: the PublicationCache of a component is kept
+   * with the KmeliaTagUtil from which it was first requested.
+   */
+  private void measure(String componentId, boolean samePublication) throws Exception {
+    StandInKmeliaTagUtil kmelia = new StandInKmeliaTagUtil(componentId, latency);
+    final PublicationCache cache = PublicationCache.getInstance(kmelia);
+    long cached = 0;
+    int cachedLoads = 0;
+    for (int i = 0; i < rounds; i++) {
+      cache.clearCache();
+      kmelia.loads.set(0);
+      cached += run(samePublication, new Loading() {
+        @Override
+        public PublicationDetail load(String pubId) throws Exception {
+          return cache.getPublication(pubId);
+        }
+      });
+      cachedLoads += kmelia.loads.get();
+    }
+
+    final GlobalMonitorCache former = new GlobalMonitorCache(kmelia);
+    long monitor = 0;
+    int monitorLoads = 0;
+    for (int i = 0; i < rounds; i++) {
+      former.clear();
+      kmelia.loads.set(0);
+      monitor += run(samePublication, new Loading() {
+        @Override
+        public PublicationDetail load(String pubId) throws Exception {
+          return former.getPublication(pubId);
+        }
+      });
+      monitorLoads += kmelia.loads.get();
+    }
+
+    System.out.println(String.format("%d threads on %-21s global monitor %8.1f ms (%d loads), " +
+        "PublicationCache %8.1f ms (%d loads)", THREADS,
+        samePublication ? "the same publication:" : "different publications:",
+        monitor / 1000000.0 / rounds, monitorLoads / rounds, cached / 1000000.0 / rounds,
+        cachedLoads / rounds));
+    assertEquals(samePublication ? 1 : THREADS, cachedLoads / rounds);
+    cache.clearCache();
+  }
+
+  /**
+   * Runs a loading in all the threads released at once.
+   * @return the time in nanoseconds until the last thread has loaded its publication.
+   */
+  private long run(final boolean samePublication, final Loading loading) throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    Future<?>[] results = new Future<?>[THREADS];
+    for (int i = 0; i < THREADS; i++) {
+      final String pubId = samePublication ? "0" : String.valueOf(i);
+      results[i] = executor.submit(new Callable<PublicationDetail>() {
+        @Override
+        public PublicationDetail call() throws Exception {
+          start.await();
+          PublicationDetail pubDetail = loading.load(pubId);
+          assertEquals(pubId, pubDetail.getPK().getId());
+          return pubDetail;
+        }
+      });
+    }
+    long begin = System.nanoTime();
+    start.countDown();
+    for (Future<?> result : results) {
+      result.get(5, TimeUnit.MINUTES);
+    }
+    return System.nanoTime() - begin;
+  }
+
+  private interface Loading {
+
+    PublicationDetail load(String pubId) throws Exception;
+  }
+
+  /**
+   * The former PublicationCache: the publications are loaded under a global monitor.
+   */
+  private static class GlobalMonitorCache {
+
+    private final KmeliaTagUtil themetracker;
+    private final Map<String, PublicationDetail> publications =
+        new HashMap<String, PublicationDetail>();
+
+    GlobalMonitorCache(KmeliaTagUtil themetracker) {
+      this.themetracker = themetracker;
+    }
+
+    synchronized PublicationDetail getPublication(String pubId) throws Exception {
+      PublicationDetail pubDetail = publications.get(pubId);
+      if (pubDetail == null) {
+        pubDetail = themetracker.getPublicationDetail(pubId);
+        publications.put(pubId, pubDetail);
+      }
+      return pubDetail;
+    }
+
+    synchronized void clear() {
+      publications.clear();
+    }
+  }
+
+  /**
+   * A Kmelia component whose publications are read remotely with a fixed latency.
+   */
+  private static class StandInKmeliaTagUtil extends KmeliaTagUtil {
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final long latency;
+
+    StandInKmeliaTagUtil(String componentId, long latency) {
+      super(null, componentId, "0", false);
+      this.latency = latency;
+    }
+
+    @Override
+    public PublicationDetail getPublicationDetail(String pubId) {
+      loads.incrementAndGet();
+      try {
+        Thread.sleep(latency);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      PublicationDetail pubDetail = new PublicationDetail();
+      pubDetail.setPk(new PublicationPK(pubId, getComponentId()));
+      return pubDetail;
+    }
+  }
+}
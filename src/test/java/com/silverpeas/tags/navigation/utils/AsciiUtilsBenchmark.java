@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.navigation.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Débit de {@link AsciiUtils#toSlug(String)}, en une seule passe sur une table, comparé à celui de
+ * la normalisation Unicode suivie des expressions régulières de
+ * {@link AsciiUtils#toSlugSlow(String)}, sur des noms de thèmes. Son nom ne correspond pas aux
+ * motifs des tests du build : il est lancé à la demande par
+ * <code>mvn test -Dtest=AsciiUtilsBenchmark</code>, le nombre de conversions mesurées étant lu
+ * dans la propriété système {@value #CONVERSIONS_PROPERTY}.
+ */
+public class AsciiUtilsBenchmark {
+
+  static final String CONVERSIONS_PROPERTY = "benchmark.conversions";
+  private static final String[] NAMES = {
+      "Accueil", "Actualités", "Vie économique", "Qu'est-ce que la médiathèque ?",
+      "Élections municipales 2014", "Comité d'entreprise", "Où trouver un hébergement ?",
+      "Cœur de ville & « patrimoine »", "Ça <b>bouge</b> à l'Hôtel de Région",
+      "Tarifs <2014 et 2015>", "Horaires d'ouverture des équipements sportifs et culturels" };
+
+  private final int conversions = Integer.getInteger(CONVERSIONS_PROPERTY, 1000000);
+
+  @Test
+  public void compareSinglePassWithNormalizer() {
+    for (String name : NAMES) {
+      assertEquals(name, AsciiUtils.toSlugSlow(name), AsciiUtils.toSlug(name));
+    }
+    measure("Normalizer + regex", new Conversion() {
+      @Override
+      public String convert(String name) {
+        return AsciiUtils.toSlugSlow(name);
+      }
+    });
+    measure("single pass", new Conversion() {
+      @Override
+      public String convert(String name) {
+        return AsciiUtils.toSlug(name);
+      }
+    });
+  }
+
+  private void measure(String label, Conversion conversion) {
+    // le résultat est utilisé pour que les conversions ne soient pas éliminées
+    int length = 0;
+    for (int i = 0; i < conversions / 10; i++) {
+      length += conversion.convert(NAMES[i % NAMES.length]).length();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < conversions; i++) {
+      length += conversion.convert(NAMES[i % NAMES.length]).length();
+    }
+    long elapsed = Math.max(1, System.nanoTime() - start);
+    assertTrue(length > 0);
+    System.out.println(String.format("%-20s %8.0f ns/conversion, %12.0f conversions/s", label,
+        (double) elapsed / conversions, conversions / (elapsed / 1000000000.0)));
+  }
+
+  private interface Conversion {
+
+    String convert(String name);
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.navigation.utils;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AsciiUtilsTest {
+
+  private static final String[] NAMES = {
+      "Accueil", "Actualités", "Vie économique", "Qu'est-ce que la médiathèque ?",
+      "Élections municipales 2014", "Comité d'entreprise", "Où trouver un hébergement ?",
+      "Cœur de ville & « patrimoine »", "Ça <b>bouge</b> à l'Hôtel de Région",
+      "Tarifs <2014 et 2015>", "Ligne\n<br/>suivante", "Straße", "Ελληνικά", "İstanbul",
+      "\"Guillemets\" et <balise", "" };
+
+  @Test
+  public void testSlugOfTopicNames() {
+    for (String name : NAMES) {
+      assertEquals(name, AsciiUtils.toSlugSlow(name), AsciiUtils.toSlug(name));
+    }
+    assertEquals("vie_economique", AsciiUtils.toSlug("Vie économique"));
+    assertEquals("qu_est-ce_que_la_mediatheque_",
+        AsciiUtils.toSlug("Qu'est-ce que la médiathèque ?"));
+  }
+
+  @Test
+  public void testSlugOfRandomNames() {
+    String alphabet = "aAéÉèêëàçôœŒÿǅ '?<>&\"/\n\r-_0123456789́  ";
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      StringBuilder name = new StringBuilder();
+      int length = random.nextInt(300);
+      for (int j = 0; j < length; j++) {
+        name.append(alphabet.charAt(random.nextInt(alphabet.length())));
+      }
+      String s = name.toString();
+      assertEquals(s, AsciiUtils.toSlugSlow(s), AsciiUtils.toSlug(s));
+    }
+  }
+}
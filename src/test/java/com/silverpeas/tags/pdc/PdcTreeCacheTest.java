@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.pdc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.silverpeas.tags.cache.CacheLoader;
+
+import static org.junit.Assert.*;
+
+public class PdcTreeCacheTest {
+
+  private final AtomicInteger loads = new AtomicInteger();
+  private final CacheLoader<PdcTreeCache.ViewKey, List> loader =
+      new CacheLoader<PdcTreeCache.ViewKey, List>() {
+        @Override
+        public List load(PdcTreeCache.ViewKey key) {
+          loads.incrementAndGet();
+          return Collections.singletonList(key.kind + "-" + key.axisId + "-" + key.valueId);
+        }
+      };
+
+  @After
+  public void clearCache() {
+    PdcTreeCache.getInstance().clear();
+  }
+
+  @Test
+  public void testViewsAreKeptByParameters() throws Exception {
+    PdcTreeCache cache = PdcTreeCache.getInstance();
+    assertEquals("tree-1-0", cache.get("tree", "1", "0", null, "fr", loader).get(0));
+    assertEquals("tree-1-0", cache.get("tree", "1", "0", null, "fr", loader).get(0));
+    assertEquals("path-1-0", cache.get("path", "1", "0", null, "fr", loader).get(0));
+    cache.get("tree", "1", "0", null, "en", loader);
+    cache.get("tree", "1", "0", "2", "fr", loader);
+    assertEquals(4, loads.get());
+  }
+
+  @Test
+  public void testInvalidateForgetsTheViewsOfTheAxisOnly() throws Exception {
+    PdcTreeCache cache = PdcTreeCache.getInstance();
+    cache.get("tree", "1", "0", null, "fr", loader);
+    cache.get("path", "1", "0>5", null, "fr", loader);
+    cache.get("tree", "11", "0", null, "fr", loader);
+    cache.get("tree", "1|tree", "0", null, "fr", loader);
+    assertEquals(4, loads.get());
+
+    cache.invalidate("1");
+    cache.get("tree", "11", "0", null, "fr", loader);
+    cache.get("tree", "1|tree", "0", null, "fr", loader);
+    assertEquals(4, loads.get());
+    cache.get("tree", "1", "0", null, "fr", loader);
+    cache.get("path", "1", "0>5", null, "fr", loader);
+    assertEquals(6, loads.get());
+  }
+
+  @Test
+  public void testContentsAreKeptBySearch() throws Exception {
+    PdcTreeCache cache = PdcTreeCache.getInstance();
+    final AtomicInteger searches = new AtomicInteger();
+    CacheLoader<PdcTreeCache.ContentsKey, List> search =
+        new CacheLoader<PdcTreeCache.ContentsKey, List>() {
+          @Override
+          public List load(PdcTreeCache.ContentsKey key) {
+            searches.incrementAndGet();
+            return Collections.singletonList(key.valuePath + key.userId);
+          }
+        };
+    List<String> componentIds = Arrays.asList("kmelia1", "kmelia2");
+    cache.getContents("1", "/0/3/", componentIds, "-1", true, search);
+    cache.getContents("1", "/0/3/", Arrays.asList("kmelia1", "kmelia2"), "-1", true, search);
+    assertEquals(1, searches.get());
+    cache.getContents("1", "/0/3/", Arrays.asList("kmelia1"), "-1", true, search);
+    cache.getContents("1", "/0/3/", componentIds, "2", true, search);
+    cache.getContents("1", "/0/3/", componentIds, "-1", false, search);
+    assertEquals(4, searches.get());
+
+    cache.invalidate("2");
+    cache.getContents("1", "/0/3/", componentIds, "-1", true, search);
+    assertEquals(4, searches.get());
+    cache.invalidate("1");
+    cache.getContents("1", "/0/3/", componentIds, "-1", true, search);
+    assertEquals(5, searches.get());
+    cache.invalidateContents();
+    cache.getContents("1", "/0/3/", componentIds, "-1", true, search);
+    assertEquals(6, searches.get());
+  }
+
+  @Test
+  public void testClassifiedPublicationsAreForgottenOnAChangeOfTheirComponent() throws Exception {
+    PdcTreeCache cache = PdcTreeCache.getInstance();
+    final AtomicInteger searches = new AtomicInteger();
+    CacheLoader<PdcTreeCache.ClassificationKey, Set<String>> search =
+        new CacheLoader<PdcTreeCache.ClassificationKey, Set<String>>() {
+          @Override
+          public Set<String> load(PdcTreeCache.ClassificationKey key) {
+            searches.incrementAndGet();
+            return Collections.singleton(key.componentId + "-" + key.valueName);
+          }
+        };
+    assertEquals(Collections.singleton("kmelia1-Paris"),
+        cache.getClassifiedPublications("kmelia1", "1", "Paris", search));
+    cache.getClassifiedPublications("kmelia1", "1", "Paris", search);
+    cache.getClassifiedPublications("kmelia2", "1", "Paris", search);
+    List<String> componentIds = Arrays.asList("kmelia2");
+    CacheLoader<PdcTreeCache.ContentsKey, List> contents =
+        new CacheLoader<PdcTreeCache.ContentsKey, List>() {
+          @Override
+          public List load(PdcTreeCache.ContentsKey key) {
+            searches.incrementAndGet();
+            return Collections.emptyList();
+          }
+        };
+    cache.getContents("1", "/0/3/", componentIds, "-1", true, contents);
+    assertEquals(3, searches.get());
+
+    cache.invalidateContents("kmelia1");
+    cache.getClassifiedPublications("kmelia2", "1", "Paris", search);
+    cache.getContents("1", "/0/3/", componentIds, "-1", true, contents);
+    assertEquals(3, searches.get());
+    cache.getClassifiedPublications("kmelia1", "1", "Paris", search);
+    assertEquals(4, searches.get());
+
+    cache.invalidateContents("kmelia2");
+    cache.getClassifiedPublications("kmelia2", "1", "Paris", search);
+    cache.getContents("1", "/0/3/", componentIds, "-1", true, contents);
+    assertEquals(6, searches.get());
+  }
+}
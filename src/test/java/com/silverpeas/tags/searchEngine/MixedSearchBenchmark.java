@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.searchEngine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.silverpeas.search.searchEngine.model.MatchingIndexEntry;
+
+import static org.junit.Assert.*;
+
+/**
+ * Before/after benchmark of the join of the full-text results with the PDC results in
+ * {@link SearchEngineTagUtil#mixedSearch(List, List)}: a scan of the full-text results for each
+ * PDC object against the hash join. Half of the PDC objects are among the full-text results. Its
+ * name doesn't match the test patterns of the build: it is run on demand with
+ * <code>mvn test -Dtest=MixedSearchBenchmark</code>. The numbers of results are read from the
+ * system property {@value #SIZES_PROPERTY} (1000, 10000 and 100000 by default); the quadratic scan
+ * is measured only up to {@value #MAX_SCAN_PROPERTY} results (10000 by default).
+ */
+public class MixedSearchBenchmark {
+
+  static final String SIZES_PROPERTY = "benchmark.results";
+  static final String MAX_SCAN_PROPERTY = "benchmark.maxScanResults";
+  private static final int WARMUP_ROUNDS = 3;
+  private static final int ROUNDS = 5;
+
+  private final int maxScanSize = Integer.getInteger(MAX_SCAN_PROPERTY, 10000);
+
+  @Test
+  public void compareScanWithHashJoin() throws Exception {
+    String sizes = System.getProperty(SIZES_PROPERTY, "1000,10000,100000");
+    for (String size : sizes.split(",")) {
+      measure(Integer.parseInt(size.trim()));
+    }
+  }
+
+  private void measure(int size) {
+    List<MatchingIndexEntry> entries = new ArrayList<MatchingIndexEntry>(size);
+    List<String> objectIds = new ArrayList<String>(size);
+    for (int i = 0; i < size; i++) {
+      entries.add(new MatchingIndexEntry(String.valueOf(i), "Publication", "kmelia1", "title " + i,
+          1.0f));
+      // the PDC objects of odd ids aren't found by the full-text search
+      objectIds.add(String.valueOf(2 * i));
+    }
+    Collections.shuffle(entries, new Random(42));
+    Collections.shuffle(objectIds, new Random(43));
+
+    List<MatchingIndexEntry> joined = null;
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      joined = SearchEngineTagUtil.mixedSearch(entries, objectIds);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ROUNDS; i++) {
+      joined = SearchEngineTagUtil.mixedSearch(entries, objectIds);
+    }
+    long hashJoin = (System.nanoTime() - start) / ROUNDS;
+    assertEquals((size + 1) / 2, joined.size());
+
+    String scan = "skipped";
+    if (size <= maxScanSize) {
+      List<MatchingIndexEntry> scanned = null;
+      for (int i = 0; i < WARMUP_ROUNDS; i++) {
+        scanned = scan(entries, objectIds);
+      }
+      start = System.nanoTime();
+      for (int i = 0; i < ROUNDS; i++) {
+        scanned = scan(entries, objectIds);
+      }
+      scan = String.format("%10.3f ms", (System.nanoTime() - start) / ROUNDS / 1000000.0);
+      assertEquals(scanned, joined);
+    }
+    System.out.println(String.format("%7d results: scan %13s, hash join %10.3f ms", size, scan,
+        hashJoin / 1000000.0));
+  }
+
+  /**
+   * The former join: the full-text results are scanned for each PDC object.
+   */
+  private static List<MatchingIndexEntry> scan(List<MatchingIndexEntry> entries,
+      List<String> objectIds) {
+    List<MatchingIndexEntry> result = new ArrayList<MatchingIndexEntry>(entries.size());
+    for (String objectId : objectIds) {
+      for (MatchingIndexEntry entry : entries) {
+        if (entry.getObjectId().equals(objectId)) {
+          result.add(entry);
+          break;
+        }
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.searchEngine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.silverpeas.search.searchEngine.model.MatchingIndexEntry;
+import org.silverpeas.search.searchEngine.model.ScoreComparator;
+
+import static org.junit.Assert.*;
+
+public class ScoreRankingTest {
+
+  @Test
+  public void testRankingIsTheStableSortByScore() {
+    Random random = new Random(42);
+    for (int round = 0; round < 50; round++) {
+      List<MatchingIndexEntry> entries = new ArrayList<MatchingIndexEntry>();
+      int size = random.nextInt(200);
+      for (int i = 0; i < size; i++) {
+        // few distinct scores, to check the order of the ties
+        entries.add(newEntry(String.valueOf(i), random.nextInt(10)));
+      }
+      List<MatchingIndexEntry> sorted = new ArrayList<MatchingIndexEntry>(entries);
+      Collections.sort(sorted, ScoreComparator.comparator);
+      ScoreRanking ranking = new ScoreRanking(entries, random.nextInt(20));
+      assertEquals(sorted.size(), ranking.size());
+      for (int i = 0; i < sorted.size(); i++) {
+        assertSame(sorted.get(i), ranking.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testOnlyTheBestEntriesAreRankedFirst() {
+    List<MatchingIndexEntry> entries = new ArrayList<MatchingIndexEntry>();
+    for (int i = 0; i < 1000; i++) {
+      entries.add(newEntry(String.valueOf(i), i));
+    }
+    ScoreRanking ranking = new ScoreRanking(entries, 10);
+    assertEquals("999", ranking.get(0).getObjectId());
+    assertEquals("990", ranking.get(9).getObjectId());
+    assertEquals(10, ranking.getRankedCount());
+    assertEquals("989", ranking.get(10).getObjectId());
+    assertEquals(20, ranking.getRankedCount());
+  }
+
+  private MatchingIndexEntry newEntry(String objectId, float score) {
+    return new MatchingIndexEntry(objectId, "Publication", "kmelia1", "title " + objectId, score);
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2000 - 2012 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.silverpeas.tags.searchEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.silverpeas.search.searchEngine.model.MatchingIndexEntry;
+
+import com.stratelia.silverpeas.contentManager.GlobalSilverContent;
+
+import static org.junit.Assert.*;
+
+public class SearchResultsTest {
+
+  @Test
+  public void testResultsKeepTheOrderOfTheHits() throws Exception {
+    SearchResults results = SearchResults.ofIndexEntries(newEntries(100));
+    List<GlobalSilverContent> page = results.getResults(10, 20, new EvenHitReader(null), 0, true);
+    assertEquals(20, page.size());
+    for (int i = 0; i < page.size(); i++) {
+      assertEquals(String.valueOf(2 * (10 + i)), page.get(i).getId());
+    }
+  }
+
+  @Test
+  public void testASlowHitDoesNotBlockTheOtherReaders() throws Exception {
+    final SearchResults results = SearchResults.ofIndexEntries(newEntries(10));
+    final CountDownLatch slowHit = new CountDownLatch(1);
+    final SearchResults.Reader reader = new EvenHitReader(slowHit);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<List<GlobalSilverContent>> patient =
+          executor.submit(new Callable<List<GlobalSilverContent>>() {
+            @Override
+            public List<GlobalSilverContent> call() throws Exception {
+              return results.getResults(0, -1, reader, 0, true);
+            }
+          });
+      // the reader without deadline waits for the slow hit: the others get what is read in time
+      List<GlobalSilverContent> page =
+          results.getResults(0, -1, reader, System.currentTimeMillis() + 100, false);
+      assertTrue(page.isEmpty());
+      assertFalse(patient.isDone());
+      slowHit.countDown();
+      assertEquals(5, patient.get(10, TimeUnit.SECONDS).size());
+      assertEquals(5, results.getResults(0, -1, reader, 0, true).size());
+    } finally {
+      slowHit.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testReadersOfSharedResultsGetTheirOwnCopy() throws Exception {
+    SearchResults results = SearchResults.ofIndexEntries(newEntries(10));
+    results.share();
+    List<GlobalSilverContent> page = results.getResults(0, 2, new EvenHitReader(null), 0, true);
+    page.get(0).setTitle("translated title");
+    List<GlobalSilverContent> otherPage =
+        results.getResults(0, 2, new EvenHitReader(null), 0, true);
+    assertNotSame(page.get(0), otherPage.get(0));
+    assertEquals("0", otherPage.get(0).getId());
+    assertEquals("title 0", otherPage.get(0).getName());
+  }
+
+  private static List<MatchingIndexEntry> newEntries(int count) {
+    List<MatchingIndexEntry> entries = new ArrayList<MatchingIndexEntry>(count);
+    for (int i = 0; i < count; i++) {
+      entries.add(new MatchingIndexEntry(String.valueOf(i), "Publication", "kmelia1", "title " + i,
+          count - i));
+    }
+    return entries;
+  }
+
+  /**
+   * Only the hits of even id are visible; the first hit waits for the given latch.
+   */
+  private static class EvenHitReader implements SearchResults.Reader {
+
+    private final CountDownLatch slowHit;
+
+    EvenHitReader(CountDownLatch slowHit) {
+      this.slowHit = slowHit;
+    }
+
+    @Override
+    public GlobalSilverContent read(GlobalSilverContent silverContent) {
+      return silverContent;
+    }
+
+    @Override
+    public GlobalSilverContent read(MatchingIndexEntry mie) throws Exception {
+      if (slowHit != null && "0".equals(mie.getObjectId())) {
+        slowHit.await();
+      }
+      if (Integer.parseInt(mie.getObjectId()) % 2 != 0) {
+        return null;
+      }
+      return new GlobalSilverContent(mie.getTitle(), null, mie.getObjectId(), null,
+          mie.getComponent(), null, null);
+    }
+  }
+}
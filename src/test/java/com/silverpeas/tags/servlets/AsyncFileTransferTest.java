@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2000 - 2015 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of the GPL, you may
+ * redistribute this Program in connection with Free/Libre Open Source Software ("FLOSS")
+ * applications as described in Silverpeas's FLOSS exception. You should have received a copy of the
+ * text describing the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.silverpeas.tags.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AsyncFileTransferTest {
+
+  private File file;
+  private byte[] data;
+  private AsyncFileTransfer transfer;
+
+  @Before
+  public void createFile() throws IOException {
+    data = new byte[3 * AsyncFileTransfer.CHUNK_SIZE + 1000];
+    new Random(42).nextBytes(data);
+    file = File.createTempFile("AsyncFileTransferTest", ".bin");
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+  }
+
+  @After
+  public void deleteFile() {
+    if (transfer != null) {
+      transfer.shutdown();
+    }
+    file.delete();
+  }
+
+  @Test
+  public void testRangeIsSentAndDownloadReleased() throws Exception {
+    transfer = new AsyncFileTransfer(2, 1, 0);
+    assertTrue(transfer.reserve());
+    assertFalse(transfer.reserve());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CountDownLatch completed = new CountDownLatch(1);
+    transfer.start(newAsyncContext(completed), out, file, 1000, 2 * AsyncFileTransfer.CHUNK_SIZE);
+    assertTrue(completed.await(10, TimeUnit.SECONDS));
+    assertArrayEquals(Arrays.copyOfRange(data, 1000, 1000 + 2 * AsyncFileTransfer.CHUNK_SIZE),
+        out.toByteArray());
+    assertTrue(transfer.reserve());
+  }
+
+  @Test
+  public void testStalledClientDoesNotBlockTheOtherDownloads() throws Exception {
+    // a single writer, and one more thread for a stalled write
+    transfer = new AsyncFileTransfer(1, 1, 2, 0, 50);
+    assertTrue(transfer.reserve());
+    assertTrue(transfer.reserve());
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch unblocked = new CountDownLatch(1);
+    OutputStream stalledClient = new ByteArrayOutputStream() {
+      @Override
+      public synchronized void write(byte[] b, int off, int len) {
+        writing.countDown();
+        try {
+          unblocked.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.write(b, off, len);
+      }
+    };
+    CountDownLatch stalledCompleted = new CountDownLatch(1);
+    transfer.start(newAsyncContext(stalledCompleted), stalledClient, file, 0, data.length);
+    assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+    ByteArrayOutputStream fastClient = new ByteArrayOutputStream();
+    CountDownLatch fastCompleted = new CountDownLatch(1);
+    transfer.start(newAsyncContext(fastCompleted), fastClient, file, 0, data.length);
+    assertTrue(fastCompleted.await(10, TimeUnit.SECONDS));
+    assertArrayEquals(data, fastClient.toByteArray());
+    assertEquals(1, transfer.getStalledWriteCount());
+
+    unblocked.countDown();
+    assertTrue(stalledCompleted.await(10, TimeUnit.SECONDS));
+    assertEquals(0, transfer.getStalledWriteCount());
+    assertTrue(transfer.reserve());
+    assertTrue(transfer.reserve());
+  }
+
+  @Test
+  public void testNonBlockingWritesOnlyWhenTheStreamIsReady() throws Exception {
+    transfer = new AsyncFileTransfer(1, 1, 0);
+    assertTrue(transfer.reserve());
+    NonBlockingStream out = new NonBlockingStream();
+    CountDownLatch completed = new CountDownLatch(1);
+    transfer.startNonBlocking(newAsyncContext(completed), out,
+        NonBlockingStream.class.getMethod("setWriteListener", WriteListener.class),
+        NonBlockingStream.class.getMethod("isReady"), file, 0, data.length);
+    assertNotNull(out.listener);
+    assertEquals(0, out.size());
+    int callbacks = 0;
+    while (completed.getCount() > 0 && callbacks < 100) {
+      // the container calls the listener each time the stream can be written again
+      out.ready = true;
+      out.listener.onWritePossible();
+      callbacks++;
+      assertTrue(out.size() <= callbacks * AsyncFileTransfer.CHUNK_SIZE);
+    }
+    assertEquals(0, completed.getCount());
+    assertEquals(5, callbacks);
+    assertArrayEquals(data, out.toByteArray());
+    assertTrue(transfer.reserve());
+  }
+
+  @Test
+  public void testIdleDownloadIsAbandoned() throws Exception {
+    transfer = new AsyncFileTransfer(1, 1, 1, 200, 50);
+    assertTrue(transfer.reserve());
+    NonBlockingStream out = new NonBlockingStream();
+    CountDownLatch completed = new CountDownLatch(1);
+    transfer.startNonBlocking(newAsyncContext(completed), out,
+        NonBlockingStream.class.getMethod("setWriteListener", WriteListener.class),
+        NonBlockingStream.class.getMethod("isReady"), file, 0, data.length);
+    // the client never reads
+    assertTrue(completed.await(10, TimeUnit.SECONDS));
+    assertEquals(0, out.size());
+    assertTrue(transfer.reserve());
+  }
+
+  @Test
+  public void testSlowDownloadInProgressIsNotAbandoned() throws Exception {
+    transfer = new AsyncFileTransfer(1, 1, 1, 200, 50);
+    assertTrue(transfer.reserve());
+    // each chunk takes half the idle timeout, the whole download twice the idle timeout
+    OutputStream slowClient = new ByteArrayOutputStream() {
+      @Override
+      public synchronized void write(byte[] b, int off, int len) {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.write(b, off, len);
+      }
+    };
+    CountDownLatch completed = new CountDownLatch(1);
+    transfer.start(newAsyncContext(completed), slowClient, file, 0, data.length);
+    assertTrue(completed.await(10, TimeUnit.SECONDS));
+    assertArrayEquals(data, ((ByteArrayOutputStream) slowClient).toByteArray());
+  }
+
+  /**
+   * The WriteListener of the Servlet 3.1 API.
+   */
+  public interface WriteListener {
+
+    void onWritePossible() throws IOException;
+
+    void onError(Throwable t);
+  }
+
+  /**
+   * An output stream of the Servlet 3.1 API whose buffer is full after each write.
+   */
+  public static class NonBlockingStream extends ByteArrayOutputStream {
+
+    volatile WriteListener listener;
+    volatile boolean ready = false;
+
+    public void setWriteListener(WriteListener listener) {
+      this.listener = listener;
+    }
+
+    public boolean isReady() {
+      return ready;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      assertTrue(ready);
+      ready = false;
+      super.write(b, off, len);
+    }
+  }
+
+  private static AsyncContext newAsyncContext(final CountDownLatch completed) {
+    return (AsyncContext) Proxy.newProxyInstance(AsyncContext.class.getClassLoader(),
+        new Class<?>[] { AsyncContext.class }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("complete".equals(method.getName())) {
+              completed.countDown();
+            }
+            return null;
+          }
+        });
+  }
+}
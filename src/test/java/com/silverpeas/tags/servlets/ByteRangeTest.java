@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2000 - 2015 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of the GPL, you may
+ * redistribute this Program in connection with Free/Libre Open Source Software ("FLOSS")
+ * applications as described in Silverpeas's FLOSS exception. You should have received a copy of the
+ * text describing the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.silverpeas.tags.servlets;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ByteRangeTest {
+
+  @Test
+  public void testSingleRanges() {
+    assertEquals(ranges(0, 499), ByteRange.parse("bytes=0-499", 10000));
+    assertEquals(ranges(9500, 9999), ByteRange.parse("bytes=9500-", 10000));
+    assertEquals(ranges(9500, 9999), ByteRange.parse("bytes=-500", 10000));
+    assertEquals(ranges(9000, 9999), ByteRange.parse("bytes=9000-20000", 10000));
+    assertEquals(ranges(0, 99), ByteRange.parse("bytes=-500", 100));
+  }
+
+  @Test
+  public void testMultipleRanges() {
+    assertEquals(Arrays.asList(new ByteRange(0, 0), new ByteRange(9999, 9999)),
+        ByteRange.parse("bytes=0-0, -1", 10000));
+    assertEquals(Arrays.asList(new ByteRange(0, 9), new ByteRange(500, 600)),
+        ByteRange.parse("Bytes=500-600,,0-9", 10000));
+  }
+
+  @Test
+  public void testOverlappingRangesAreCoalesced() {
+    assertEquals(ranges(500, 999), ByteRange.parse("bytes=500-600,601-999", 10000));
+    assertEquals(ranges(0, 699), ByteRange.parse("bytes=500-699,100-499,0-99", 1000));
+    assertEquals(Arrays.asList(new ByteRange(0, 99), new ByteRange(200, 299)),
+        ByteRange.parse("bytes=200-299,0-50,10-99,250-", 300));
+    // the whole file asked many times is sent once
+    StringBuilder repeated = new StringBuilder("bytes=0-");
+    for (int i = 1; i < ByteRange.MAX_RANGES; i++) {
+      repeated.append(",0-");
+    }
+    assertEquals(ranges(0, 9999), ByteRange.parse(repeated.toString(), 10000));
+  }
+
+  @Test
+  public void testUnsatisfiableRanges() {
+    List<ByteRange> none = Collections.emptyList();
+    assertEquals(none, ByteRange.parse("bytes=10000-", 10000));
+    assertEquals(none, ByteRange.parse("bytes=-0", 10000));
+    assertEquals(none, ByteRange.parse("bytes=0-10", 0));
+    assertEquals(ranges(0, 9), ByteRange.parse("bytes=20000-30000,0-9", 10000));
+  }
+
+  @Test
+  public void testInvalidRangesAreIgnored() {
+    assertNull(ByteRange.parse(null, 10000));
+    assertNull(ByteRange.parse("items=0-10", 10000));
+    assertNull(ByteRange.parse("bytes=", 10000));
+    assertNull(ByteRange.parse("bytes=10-5", 10000));
+    assertNull(ByteRange.parse("bytes=-", 10000));
+    assertNull(ByteRange.parse("bytes=a-5", 10000));
+    assertNull(ByteRange.parse("bytes=0-10,5", 10000));
+    assertNull(ByteRange.parse("bytes=99999999999999999999-", 10000));
+    StringBuilder tooMany = new StringBuilder("bytes=0-0");
+    for (int i = 1; i <= ByteRange.MAX_RANGES; i++) {
+      tooMany.append(',').append(i).append('-').append(i);
+    }
+    assertNull(ByteRange.parse(tooMany.toString(), 10000));
+  }
+
+  @Test
+  public void testContentRange() {
+    assertEquals("bytes 0-499/10000", new ByteRange(0, 499).getContentRange(10000));
+    assertEquals(500, new ByteRange(0, 499).getLength());
+  }
+
+  private List<ByteRange> ranges(long start, long end) {
+    return Collections.singletonList(new ByteRange(start, end));
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2000 - 2015 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of the GPL, you may
+ * redistribute this Program in connection with Free/Libre Open Source Software ("FLOSS")
+ * applications as described in Silverpeas's FLOSS exception. You should have received a copy of the
+ * text describing the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.silverpeas.tags.servlets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CacheControlPolicyTest {
+
+  @Test
+  public void testMostSpecificPolicyApplies() {
+    CacheControlPolicy policy = new CacheControlPolicy();
+    policy.put("image/*", "private, max-age=86400");
+    policy.put("image/svg+xml", "no-store");
+    policy.put("*", "private, no-cache");
+    assertEquals("private, max-age=86400", policy.get("image/png"));
+    assertEquals("private, max-age=86400", policy.get("Image/JPEG"));
+    assertEquals("no-store", policy.get("image/svg+xml; charset=UTF-8"));
+    assertEquals("private, no-cache", policy.get("application/pdf"));
+    assertEquals("private, no-cache", policy.get(null));
+  }
+
+  @Test
+  public void testNoPolicy() {
+    CacheControlPolicy policy = new CacheControlPolicy();
+    policy.put("video/*", "private, max-age=3600");
+    assertNull(policy.get("application/pdf"));
+  }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2000 - 2015 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of the GPL, you may
+ * redistribute this Program in connection with Free/Libre Open Source Software ("FLOSS")
+ * applications as described in Silverpeas's FLOSS exception. You should have received a copy of the
+ * text describing the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.silverpeas.tags.servlets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Throughput of the buffered copy of {@link FileDelivery} against a zero-copy transfer with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, into a file and into a loopback
+ * socket. Its name doesn't match the test patterns of the build: it is run on demand with
+ * <code>mvn test -Dtest=FileDeliveryBenchmark</code>. The size of the file in megabytes and the
+ * number of measured rounds are read from the system properties {@value #SIZE_PROPERTY} and
+ * {@value #ROUNDS_PROPERTY}.
+ */
+public class FileDeliveryBenchmark {
+
+  static final String SIZE_PROPERTY = "benchmark.fileSize";
+  static final String ROUNDS_PROPERTY = "benchmark.rounds";
+  private static final int MEGABYTE = 1024 * 1024;
+  private static final int WARMUP_ROUNDS = 3;
+
+  private final int rounds = Integer.getInteger(ROUNDS_PROPERTY, 10);
+  private File source;
+  private File target;
+  private ServerSocketChannel server;
+  private ExecutorService drainer;
+
+  @Before
+  public void createFiles() throws IOException {
+    source = File.createTempFile("FileDeliveryBenchmark", ".bin");
+    target = File.createTempFile("FileDeliveryBenchmark", ".out");
+    byte[] chunk = new byte[MEGABYTE];
+    new Random(42).nextBytes(chunk);
+    OutputStream out = new FileOutputStream(source);
+    try {
+      for (int i = 0; i < Integer.getInteger(SIZE_PROPERTY, 256); i++) {
+        out.write(chunk);
+      }
+    } finally {
+      out.close();
+    }
+    server = ServerSocketChannel.open();
+    server.socket().bind(new InetSocketAddress(InetAddress.getByName(null), 0));
+    drainer = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void deleteFiles() throws IOException {
+    drainer.shutdownNow();
+    server.close();
+    source.delete();
+    target.delete();
+  }
+
+  @Test
+  public void compareBufferedCopyWithTransferToIntoAFile() throws Exception {
+    measure("buffered copy -> file", new Transfer() {
+      @Override
+      public long run() throws IOException {
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+          FileDelivery.copy(source, 0, source.length(), out);
+        } finally {
+          out.close();
+        }
+        return target.length();
+      }
+    });
+    measure("transferTo -> file", new Transfer() {
+      @Override
+      public long run() throws IOException {
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+          transferTo(out.getChannel());
+        } finally {
+          out.close();
+        }
+        return target.length();
+      }
+    });
+  }
+
+  @Test
+  public void compareBufferedCopyWithTransferToIntoASocket() throws Exception {
+    measure("buffered copy -> socket", new Transfer() {
+      @Override
+      public long run() throws Exception {
+        Future<Long> received = drain();
+        SocketChannel socket = connect();
+        try {
+          FileDelivery.copy(source, 0, source.length(), socket.socket().getOutputStream());
+        } finally {
+          socket.close();
+        }
+        return received.get(60, TimeUnit.SECONDS);
+      }
+    });
+    measure("transferTo -> socket", new Transfer() {
+      @Override
+      public long run() throws Exception {
+        Future<Long> received = drain();
+        SocketChannel socket = connect();
+        try {
+          transferTo(socket);
+        } finally {
+          socket.close();
+        }
+        return received.get(60, TimeUnit.SECONDS);
+      }
+    });
+  }
+
+  private void measure(String name, Transfer transfer) throws Exception {
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      assertEquals(source.length(), transfer.run());
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < rounds; i++) {
+      assertEquals(source.length(), transfer.run());
+    }
+    long elapsed = Math.max(1, System.nanoTime() - start);
+    double megabytes = (double) source.length() * rounds / MEGABYTE;
+    System.out.println(String.format("%-24s %10.1f MB/s", name,
+        megabytes / (elapsed / 1000000000.0)));
+  }
+
+  /**
+   * Zero-copy transfer of the whole source file: transferTo may send less than asked.
+   */
+  private void transferTo(WritableByteChannel out) throws IOException {
+    FileInputStream in = new FileInputStream(source);
+    try {
+      FileChannel channel = in.getChannel();
+      long position = 0;
+      long length = source.length();
+      while (position < length) {
+        position += channel.transferTo(position, length - position, out);
+      }
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  private SocketChannel connect() throws IOException {
+    SocketChannel socket = SocketChannel.open(server.socket().getLocalSocketAddress());
+    socket.configureBlocking(true);
+    return socket;
+  }
+
+  /**
+   * Accepts the next connection and reads it to its end.
+   * @return the number of bytes received.
+   */
+  private Future<Long> drain() {
+    return drainer.submit(new Callable<Long>() {
+      @Override
+      public Long call() throws IOException {
+        SocketChannel socket = server.accept();
+        try {
+          InputStream in = Channels.newInputStream(socket);
+          byte[] buffer = new byte[FileDelivery.BUFFER_SIZE];
+          long received = 0;
+          int read;
+          while ((read = in.read(buffer)) >= 0) {
+            received += read;
+          }
+          return received;
+        } finally {
+          socket.close();
+        }
+      }
+    });
+  }
+
+  private interface Transfer {
+
+    /**
+     * @return the number of bytes received by the target.
+     */
+    long run() throws Exception;
+  }
+}
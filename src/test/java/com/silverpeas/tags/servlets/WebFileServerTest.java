@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2000 - 2015 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU Affero General Public License as published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of the GPL, you may
+ * redistribute this Program in connection with Free/Libre Open Source Software ("FLOSS")
+ * applications as described in Silverpeas's FLOSS exception. You should have received a copy of the
+ * text describing the FLOSS exception, and it is also available here:
+ * "http://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.silverpeas.tags.servlets;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverpeas.util.web.servlet.RestRequest;
+
+import static org.junit.Assert.*;
+
+public class WebFileServerTest {
+
+  private File directory;
+  private File contentFile;
+  private StandInServer server;
+
+  @Before
+  public void createFile() throws IOException {
+    directory = File.createTempFile("WebFileServerTest", "");
+    directory.delete();
+    // a document stored as by the attachment service: {document}/{major}_{minor}/{language}/
+    contentFile = new File(directory, "document/1_0/fr/file.pdf");
+    contentFile.getParentFile().mkdirs();
+    write(contentFile, "version 1.0");
+    server = new StandInServer();
+  }
+
+  @After
+  public void deleteFile() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test
+  public void testResolvedFileIsKeptForTheNextRequests() throws Exception {
+    ResolvedFile file = server.resolve("kmelia1|12|fr", null);
+    assertEquals(contentFile, file.getContentFile());
+    assertSame(file, server.resolve("kmelia1|12|fr", null));
+    assertEquals(1, server.resolutions.get());
+    server.resolve("kmelia1|12|en", null);
+    assertEquals(2, server.resolutions.get());
+  }
+
+  @Test
+  public void testAuthorizationIsKeptForAFewSeconds() throws Exception {
+    assertTrue(server.isUserAllowed("1", "kmelia1"));
+    assertTrue(server.isUserAllowed("1", "kmelia1"));
+    assertEquals(1, server.checks.get());
+    assertFalse(server.isUserAllowed("2", "kmelia1"));
+    assertFalse(server.isUserAllowed("2", "kmelia1"));
+    assertTrue(server.isUserAllowed("1", "kmelia2"));
+    assertEquals(3, server.checks.get());
+  }
+
+  @Test
+  public void testChangedFileIsNotAnsweredAsNotModified() throws Exception {
+    ResolvedFile file = server.resolve("kmelia1|12|fr", null);
+    String eTag = file.getETag();
+    Response response = new Response();
+    server.display(newRequest(eTag), response.proxy(), server.resolve("kmelia1|12|fr", null));
+    assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.status);
+
+    write(contentFile, "version 1.0 corrected");
+    contentFile.setLastModified(file.getLastModified() - 10000);
+    response = new Response();
+    HttpServletRequest request = newRequest(eTag);
+    server.display(request, response.proxy(), server.resolve("kmelia1|12|fr", null));
+    assertEquals(0, response.status);
+    assertFalse(eTag.equals(response.headers.get("ETag")));
+    assertEquals(contentFile.getCanonicalPath(),
+        request.getAttribute(FileDelivery.SENDFILE_FILENAME));
+    assertEquals(2, server.resolutions.get());
+  }
+
+  @Test
+  public void testNewVersionIsResolvedAgain() throws Exception {
+    ResolvedFile file = server.resolve("kmelia1|12|fr", null);
+    File document = new File(directory, "document");
+    // the old version is kept unchanged, the new one is stored in its own directory
+    File newVersion = new File(directory, "document/2_0/fr/file.pdf");
+    newVersion.getParentFile().mkdirs();
+    write(newVersion, "version 2.0, reviewed");
+    document.setLastModified(document.lastModified() + 10000);
+    assertTrue(file.isStale());
+    server.contentFile = newVersion;
+    ResolvedFile resolved = server.resolve("kmelia1|12|fr", null);
+    assertEquals(newVersion, resolved.getContentFile());
+    assertFalse(file.getETag().equals(resolved.getETag()));
+    assertEquals(2, server.resolutions.get());
+  }
+
+  private static void write(File file, String content) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * A conditional GET of a container sending the files itself.
+   */
+  private static HttpServletRequest newRequest(final String ifNoneMatch) {
+    final Map<String, Object> attributes = new HashMap<String, Object>();
+    attributes.put(FileDelivery.SENDFILE_SUPPORT, Boolean.TRUE);
+    return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+        new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("getMethod".equals(name)) {
+              return "GET";
+            } else if ("getHeader".equals(name)) {
+              return "If-None-Match".equals(args[0]) ? ifNoneMatch : null;
+            } else if ("getDateHeader".equals(name)) {
+              return -1L;
+            } else if ("getAttribute".equals(name)) {
+              return attributes.get(args[0]);
+            } else if ("setAttribute".equals(name)) {
+              attributes.put((String) args[0], args[1]);
+            } else if ("isAsyncSupported".equals(name)) {
+              return false;
+            }
+            return null;
+          }
+        });
+  }
+
+  private static class Response {
+
+    private final Map<String, String> headers = new HashMap<String, String>();
+    private int status = 0;
+
+    HttpServletResponse proxy() {
+      return (HttpServletResponse) Proxy.newProxyInstance(
+          HttpServletResponse.class.getClassLoader(), new Class<?>[] { HttpServletResponse.class },
+          new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              String name = method.getName();
+              if ("setHeader".equals(name)) {
+                headers.put((String) args[0], (String) args[1]);
+              } else if ("setStatus".equals(name)) {
+                status = (Integer) args[0];
+              }
+              return null;
+            }
+          });
+    }
+  }
+
+  /**
+   * A server whose files are resolved without the attachment service, and whose only allowed
+   * user is the user 1.
+   */
+  private class StandInServer extends WebFileServer {
+
+    private static final long serialVersionUID = 1L;
+    private final AtomicInteger resolutions = new AtomicInteger();
+    private final AtomicInteger checks = new AtomicInteger();
+    private File contentFile = WebFileServerTest.this.contentFile;
+
+    @Override
+    protected OnlineFile getWantedFile(RestRequest restRequest) {
+      resolutions.incrementAndGet();
+      final File wanted = contentFile;
+      return new OnlineFile("application/pdf", wanted.getName(), null, "kmelia1") {
+        @Override
+        public File getContentFile() {
+          return wanted;
+        }
+
+        @Override
+        public File getVersionsDirectory(File file) {
+          return file.getParentFile().getParentFile().getParentFile();
+        }
+      };
+    }
+
+    @Override
+    protected boolean checkUserAllowed(String userId, String componentId) {
+      checks.incrementAndGet();
+      return "1".equals(userId);
+    }
+  }
+}